@@ -5,7 +5,6 @@ package nachos.machine;
 import nachos.security.*;
 
 import java.io.EOFException;
-import java.util.Arrays;
 
 /**
  * A <tt>CoffSection</tt> manages a single section within a COFF executable.
@@ -180,7 +179,7 @@ public class CoffSection {
 	Lib.assertTrue(ppn>=0 && ppn<Machine.processor().getNumPhysPages());
 
 	int pageSize = Processor.pageSize;
-	byte[] memory = Machine.processor().getMemory();
+	Processor processor = Machine.processor();
 	int paddr = ppn*pageSize;
 	int faddr = contentOffset + spn*pageSize;
 	int initlen;
@@ -196,10 +195,18 @@ public class CoffSection {
 	else
 	    initlen = pageSize;
 
-	if (initlen > 0)
-	    Lib.strictReadFile(file, faddr, memory, paddr, initlen);
+	if (initlen > 0 && !processor.isMemoryOffHeap()) {
+	    Lib.strictReadFile(file, faddr, processor.getMemory(paddr, initlen),
+			       paddr, initlen);
+	    processor.memoryWritten(paddr, initlen);
+	}
+	else if (initlen > 0) {
+	    byte[] page = new byte[initlen];
+	    Lib.strictReadFile(file, faddr, page, 0, initlen);
+	    processor.writeMemory(paddr, page, 0, initlen);
+	}
 
-	Arrays.fill(memory, paddr+initlen, paddr+pageSize, (byte) 0);
+	processor.zeroMemory(paddr+initlen, pageSize-initlen);
     }
 
     /** The COFF object to which this section belongs. */
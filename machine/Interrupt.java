@@ -4,9 +4,8 @@ package nachos.machine;
 
 import nachos.security.*;
 
-import java.util.TreeSet;
-import java.util.Iterator;
-import java.util.SortedSet;
+import java.util.Arrays;
+import java.util.Comparator;
 
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
@@ -53,7 +52,11 @@ public final class Interrupt {
 	privilege.interrupt = new InterruptPrivilege();
 	
 	enabled = false;
-	pending = new TreeSet<PendingInterrupt>();
+	pendingTimes = new long[initialPending];
+	pendingIds = new long[initialPending];
+	pendingTypes = new String[initialPending];
+	pendingHandlers = new Runnable[initialPending];
+	numPending = 0;
     }
 
     /**
@@ -124,13 +127,106 @@ public final class Interrupt {
 	Lib.assertTrue(when>0);
 	
 	long time = privilege.stats.totalTicks + when;
-	PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
+	long id = numPendingInterruptsCreated++;
 
 	Lib.debug(dbgInt,
 		  "Scheduling the " + type +
 		  " interrupt handler at time = " + time);
 
-	pending.add(toOccur);
+	if (numPending == pendingTimes.length)
+	    growPending();
+
+	// sift the new interrupt up from the first free slot
+	int i = numPending++;
+	while (i > 0) {
+	    int parent = (i-1) / 2;
+	    if (!precedes(time, id, pendingTimes[parent], pendingIds[parent]))
+		break;
+
+	    movePending(parent, i);
+	    i = parent;
+	}
+
+	setPending(i, time, id, type, handler);
+    }
+
+    /**
+     * Remove the earliest pending interrupt from the heap. The caller must
+     * read its fields first.
+     */
+    private void removeFirstPending() {
+	int last = --numPending;
+	long time = pendingTimes[last];
+	long id = pendingIds[last];
+	String type = pendingTypes[last];
+	Runnable handler = pendingHandlers[last];
+
+	// don't hold on to handlers that will never run again
+	pendingTypes[last] = null;
+	pendingHandlers[last] = null;
+
+	if (last == 0)
+	    return;
+
+	// sift the last interrupt down from the root
+	int i = 0;
+	while (true) {
+	    int child = 2*i + 1;
+	    if (child >= last)
+		break;
+
+	    if (child+1 < last &&
+		precedes(pendingTimes[child+1], pendingIds[child+1],
+			 pendingTimes[child], pendingIds[child]))
+		child++;
+
+	    if (!precedes(pendingTimes[child], pendingIds[child], time, id))
+		break;
+
+	    movePending(child, i);
+	    i = child;
+	}
+
+	setPending(i, time, id, type, handler);
+    }
+
+    /**
+     * Interrupts are ordered by time, and interrupts scheduled for the same
+     * time run in the order they were scheduled.
+     */
+    private static boolean precedes(long time1, long id1,
+				    long time2, long id2) {
+	return time1 < time2 || (time1 == time2 && id1 < id2);
+    }
+
+    private void movePending(int from, int to) {
+	setPending(to, pendingTimes[from], pendingIds[from],
+		   pendingTypes[from], pendingHandlers[from]);
+    }
+
+    private void setPending(int i, long time, long id, String type,
+			    Runnable handler) {
+	pendingTimes[i] = time;
+	pendingIds[i] = id;
+	pendingTypes[i] = type;
+	pendingHandlers[i] = handler;
+    }
+
+    private void growPending() {
+	int size = pendingTimes.length * 2;
+
+	pendingTimes = Arrays.copyOf(pendingTimes, size);
+	pendingIds = Arrays.copyOf(pendingIds, size);
+	pendingTypes = Arrays.copyOf(pendingTypes, size);
+	pendingHandlers = Arrays.copyOf(pendingHandlers, size);
+    }
+
+    /**
+     * Return the time of the earliest pending interrupt, or
+     * <tt>Long.MAX_VALUE</tt> if none is pending.
+     */
+    private long nextDueTime() {
+	return (numPending == 0) ? Long.MAX_VALUE : pendingTimes[0];
     }
 
     private void tick(boolean inKernelMode) {
@@ -147,12 +243,68 @@ public final class Interrupt {
 
 	if (Lib.test(dbgInt))
 	    System.out.println("== Tick " + stats.totalTicks + " ==");
+	// nothing can be due yet, so skip checking
+	else if (stats.totalTicks < nextDueTime()) {
+	    enabled = true;
+	    return;
+	}
+
+	enabled = false;
+	checkIfDue();
+	enabled = true;
+    }
+
+    /**
+     * Advance simulated time as if <tt>tick()</tt> were called <i>count</i>
+     * times, checking for due interrupts only after the last tick. The caller
+     * must ensure that no pending interrupt becomes due before the last tick
+     * (see <tt>ticksUntilDue()</tt>).
+     */
+    private void tick(boolean inKernelMode, int count) {
+	Lib.assertTrue(count > 0);
+
+	// keep the per-tick debug output
+	if (Lib.test(dbgInt)) {
+	    for (int i=0; i<count; i++)
+		tick(inKernelMode);
+	    return;
+	}
+
+	Stats stats = privilege.stats;
+	long perTick = inKernelMode ? Stats.KernelTick : Stats.UserTick;
+
+	// nothing may become due before the last tick
+	Lib.assertTrue(perTick * (count-1) < ticksUntilDue());
+
+	if (inKernelMode) {
+	    stats.kernelTicks += perTick * count;
+	    stats.totalTicks += perTick * count;
+	}
+	else {
+	    stats.userTicks += perTick * count;
+	    stats.totalTicks += perTick * count;
+	}
 
 	enabled = false;
 	checkIfDue();
 	enabled = true;
     }
 
+    /**
+     * Return the amount of simulated time that may pass before the next
+     * pending interrupt is due. The interrupt becomes due on the tick that
+     * advances simulated time by this amount.
+     *
+     * @return	the time until the next pending interrupt is due, or
+     *		<tt>Long.MAX_VALUE</tt> if no interrupt is pending.
+     */
+    private long ticksUntilDue() {
+	if (numPending == 0)
+	    return Long.MAX_VALUE;
+
+	return pendingTimes[0] - privilege.stats.totalTicks;
+    }
+
     private void checkIfDue() {
 	long time = privilege.stats.totalTicks;
 
@@ -161,27 +313,27 @@ public final class Interrupt {
 	if (Lib.test(dbgInt))
 	    print();
 
-	if (pending.isEmpty())
+	if (numPending == 0)
 	    return;
 
-	if (((PendingInterrupt) pending.first()).time > time)
+	if (pendingTimes[0] > time)
 	    return;
 
 	Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
 	
-	while (!pending.isEmpty() &&
-	       ((PendingInterrupt) pending.first()).time <= time) {
-	    PendingInterrupt next = (PendingInterrupt) pending.first();
-	    pending.remove(next);
+	while (numPending > 0 && pendingTimes[0] <= time) {
+	    String type = pendingTypes[0];
+	    Runnable handler = pendingHandlers[0];
 
-	    Lib.assertTrue(next.time <= time);
+	    // the handler may context switch, so remove it from the heap first
+	    removeFirstPending();
 
 	    if (privilege.processor != null)
 		privilege.processor.flushPipe();
 
-	    Lib.debug(dbgInt, "  " + next.type);
+	    Lib.debug(dbgInt, "  " + type);
 			
-	    next.handler.run();
+	    handler.run();
 	}
 
 	Lib.debug(dbgInt, "  (end of list)");
@@ -192,52 +344,48 @@ public final class Interrupt {
 			   + ", interrupts " + (enabled ? "on" : "off"));
 	System.out.println("Pending interrupts:");
 
-	for (Iterator i=pending.iterator(); i.hasNext(); ) {
-	    PendingInterrupt toOccur = (PendingInterrupt) i.next();
-	    System.out.println("  " + toOccur.type +
-			       ", scheduled at " + toOccur.time);
+	// the heap is only partially ordered, so sort a copy of it
+	Integer[] order = new Integer[numPending];
+	for (int i=0; i<numPending; i++)
+	    order[i] = i;
+
+	Arrays.sort(order, new Comparator<Integer>() {
+		public int compare(Integer a, Integer b) {
+		    if (precedes(pendingTimes[a], pendingIds[a],
+				 pendingTimes[b], pendingIds[b]))
+			return -1;
+		    else if (a.equals(b))
+			return 0;
+		    else
+			return 1;
+		}
+	    });
+
+	for (int i=0; i<numPending; i++) {
+	    System.out.println("  " + pendingTypes[order[i]] +
+			       ", scheduled at " + pendingTimes[order[i]]);
 	}
 
 	System.out.println("  (end of list)");
     }
 
-    private class PendingInterrupt implements Comparable {
-	PendingInterrupt(long time, String type, Runnable handler) {
-	    this.time = time;
-	    this.type = type;
-	    this.handler = handler;
-	    this.id = numPendingInterruptsCreated++;
-	}
-
-	public int compareTo(Object o) {
-	    PendingInterrupt toOccur = (PendingInterrupt) o;
-
-	    // can't return 0 for unequal objects, so check all fields
-	    if (time < toOccur.time)
-		return -1;
-	    else if (time > toOccur.time)
-		return 1;
-	    else if (id < toOccur.id)
-		return -1;
-	    else if (id > toOccur.id)
-		return 1;
-	    else
-		return 0;
-	}
-
-	long time;
-	String type;
-	Runnable handler;
-
-	private long id;
-    }
-    
     private long numPendingInterruptsCreated = 0;
 
     private Privilege privilege;
 
     private boolean enabled;
-    private TreeSet<PendingInterrupt> pending;
+    /**
+     * Pending interrupts, kept as a binary heap ordered by time and then by
+     * id in parallel arrays. Slots are reused, so scheduling an interrupt
+     * only allocates when the heap outgrows its arrays.
+     */
+    private long[] pendingTimes;
+    private long[] pendingIds;
+    private String[] pendingTypes;
+    private Runnable[] pendingHandlers;
+    private int numPending;
+
+    private static final int initialPending = 16;
 
     private static final char dbgInt = 'i';
 
@@ -249,5 +397,13 @@ public final class Interrupt {
 	public void tick(boolean inKernelMode) {
 	    Interrupt.this.tick(inKernelMode);
 	}
+
+	public void tick(boolean inKernelMode, int count) {
+	    Interrupt.this.tick(inKernelMode, count);
+	}
+
+	public long ticksUntilDue() {
+	    return Interrupt.this.ticksUntilDue();
+	}
     }
 }
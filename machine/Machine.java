@@ -307,6 +307,35 @@ public final class Machine {
      * @return	the hardware timer.
      */
     public static Timer timer() { return timer; }
+
+    /*
+     * The statistics stay behind Privilege. The kernel can only add to the
+     * counts of the paging events that the hardware cannot see.
+     */
+
+    /** Count a page fault that the kernel took on a TLB miss. */
+    public static void countPageFault() { stats.numPageFaults++; }
+
+    /** Count a flush of the whole TLB by the kernel. */
+    public static void countTLBFlush() { stats.numTLBFlushes++; }
+
+    /**
+     * Count pages read from swap.
+     *
+     * @param	count	the number of pages.
+     */
+    public static void countSwapReads(int count) {
+	stats.numSwapReads += count;
+    }
+
+    /** Count a page written to swap. */
+    public static void countSwapWrite() { stats.numSwapWrites++; }
+
+    /** Count a prefetched page that was used. */
+    public static void countPrefetchHit() { stats.numPrefetchHits++; }
+
+    /** Count a prefetched page that was discarded without being used. */
+    public static void countPrefetchMiss() { stats.numPrefetchMisses++; }
     
     /**
      * Return the hardware elevator bank.
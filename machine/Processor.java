@@ -4,6 +4,10 @@ package nachos.machine;
 
 import nachos.security.*;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
 /**
  * The <tt>Processor</tt> class simulates a MIPS processor that supports a
  * subset of the R3000 instruction set. Specifically, the processor lacks all
@@ -34,6 +38,13 @@ public final class Processor {
 	this.privilege = privilege;
 	privilege.processor = new ProcessorPrivilege();
 
+	// decide once whether to trace, so the untraced path never tests flags
+	if (Lib.test(dbgProcessor) || Lib.test(dbgDisassemble) ||
+	    Lib.test(dbgFullDisassemble))
+	    tracer = new DebugTracer();
+	else
+	    tracer = new Tracer();
+
 	Class<?> clsKernel = Lib.loadClass(Config.getString("Kernel.kernel"));
 	Class<?> clsVMKernel = Lib.tryLoadClass("nachos.vm.VMKernel");
 
@@ -45,12 +56,58 @@ public final class Processor {
 	for (int i=0; i<numUserRegisters; i++)
 	    registers[i] = 0;
 
-	mainMemory = new byte[pageSize * numPhysPages];
+	Lib.assertTrue(numPhysPages > 0 &&
+		       numPhysPages <= Integer.MAX_VALUE / pageSize,
+		       "bad Processor.numPhysPages");
+
+	// a large memory kept off the heap is never scanned or copied by the
+	// garbage collector; the JVM's -XX:MaxDirectMemorySize must be at
+	// least its size
+	if (Config.getBoolean("Processor.offHeapMemory", false)) {
+	    mainMemory = null;
+	    memoryBuffer = ByteBuffer.allocateDirect(pageSize * numPhysPages);
+	}
+	else {
+	    mainMemory = new byte[pageSize * numPhysPages];
+	    memoryBuffer = ByteBuffer.wrap(mainMemory);
+	}
+	memoryBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+	decodeCache = new DecodedPage[numPhysPages];
+
+	String engine = Config.getString("Processor.engine", "interpreter");
+	if (engine.equals("block"))
+	    usingBlockEngine = true;
+	else
+	    Lib.assertTrue(engine.equals("interpreter"),
+			   "unknown Processor.engine " + engine);
 
 	if (usingTLB) {
+	    if (Config.getBoolean("Processor.variableTLB", false))
+		tlbSize = Config.getInteger("Processor.tlbSize", tlbSize);
+	    Lib.assertTrue(tlbSize > 0, "bad Processor.tlbSize");
+
+	    int superpageSize =
+		Config.getInteger("Processor.superpageSize", 0x10000);
+	    pagesPerSuperpage = superpageSize / pageSize;
+	    Lib.assertTrue(superpageSize % pageSize == 0 &&
+			   pagesPerSuperpage > 0 &&
+			   (pagesPerSuperpage & (pagesPerSuperpage-1)) == 0,
+			   "bad Processor.superpageSize");
+	    
 	    translations = new TranslationEntry[tlbSize];
 	    for (int i=0; i<tlbSize; i++)
 		translations[i] = new TranslationEntry();
+
+	    int numBuckets = 1;
+	    while (numBuckets < tlbSize)
+		numBuckets *= 2;
+	    
+	    tlbBuckets = new int[numBuckets];
+	    for (int i=0; i<numBuckets; i++)
+		tlbBuckets[i] = -1;
+	    tlbChain = new int[tlbSize];
+	    tlbASIDs = new int[tlbSize];
 	}
 	else {
 	    translations = null;
@@ -92,8 +149,21 @@ public final class Processor {
 	Machine.autoGrader().runProcessor(privilege);
 
 	Instruction inst = new Instruction();
+
+	// per-instruction debug output must stay interleaved with the
+	// interrupt debug output, so only tick in bulk when not tracing
+	boolean batchTicks = !tracer.tracing();
+	boolean runBlocks = usingBlockEngine && batchTicks;
 	
 	while (true) {
+	    if (runBlocks && inst.runBlocks())
+		continue;
+
+	    if (batchTicks) {
+		inst.runUntilDue();
+		continue;
+	    }
+	    
 	    try {
 		inst.run();
 	    }
@@ -175,6 +245,7 @@ public final class Processor {
 	Lib.assertTrue(!usingTLB);
 
 	this.translations = pageTable;
+	invalidateLastTranslations();
     }
 
     /**
@@ -202,7 +273,34 @@ public final class Processor {
     }
 
     /**
-     * Fill the specified TLB entry.
+     * Return the number of pages a superpage TLB entry maps. This is the
+     * <tt>Processor.superpageSize</tt> key in <tt>nachos.conf</tt> divided by
+     * the page size, and is a power of two.
+     *
+     * @return	the number of pages in a superpage.
+     */
+    public int getPagesPerSuperpage() {
+	Lib.assertTrue(usingTLB);
+
+	return pagesPerSuperpage;
+    }
+
+    /**
+     * Return the address space ID that the specified TLB entry is tagged
+     * with.
+     *
+     * @param	number	the index into the TLB.
+     * @return	the ASID of the entry.
+     */
+    public int readTLBEntryASID(int number) {
+	Lib.assertTrue(usingTLB);
+	Lib.assertTrue(number >= 0 && number < tlbSize);
+
+	return tlbASIDs[number];
+    }
+
+    /**
+     * Fill the specified TLB entry, tagging it with the current ASID.
      *
      * <p>
      * The TLB is fully associative, so the location of an entry within the TLB
@@ -212,10 +310,142 @@ public final class Processor {
      * @param	entry	the new contents of the TLB entry.
      */
     public void writeTLBEntry(int number, TranslationEntry entry) {
+	writeTLBEntry(number, entry, asid);
+    }
+
+    /**
+     * Fill the specified TLB entry, tagging it with the specified ASID. The
+     * entry only translates addresses while that ASID is current. A valid
+     * superpage entry must be aligned to the superpage size in both virtual
+     * and physical memory.
+     *
+     * @param	number	the index into the TLB.
+     * @param	entry	the new contents of the TLB entry.
+     * @param	asid	the address space ID to tag the entry with.
+     */
+    public void writeTLBEntry(int number, TranslationEntry entry, int asid) {
 	Lib.assertTrue(usingTLB);
 	Lib.assertTrue(number >= 0 && number < tlbSize);
-
+	Lib.assertTrue(asid >= 0 && asid < numASIDs);
+	Lib.assertTrue(!entry.valid || !entry.superpage ||
+		       (entry.vpn % pagesPerSuperpage == 0 &&
+			entry.ppn % pagesPerSuperpage == 0),
+		       "misaligned superpage");
+
+	if (translations[number].valid)
+	    unindexTLBEntry(number);
+	
 	translations[number] = new TranslationEntry(entry);
+	tlbASIDs[number] = asid;
+
+	if (translations[number].valid)
+	    indexTLBEntry(number);
+
+	invalidateLastTranslations();
+    }
+
+    /**
+     * Return the current address space ID. Only TLB entries tagged with the
+     * current ASID translate addresses.
+     *
+     * @return	the current ASID.
+     */
+    public int getASID() {
+	Lib.assertTrue(usingTLB);
+
+	return asid;
+    }
+
+    /**
+     * Set the current address space ID. The TLB entries of other address
+     * spaces stay in the TLB, so a kernel that gives each process its own
+     * ASID does not need to flush the TLB on a context switch.
+     *
+     * @param	asid	the new ASID, between <tt>0</tt> and
+     *			<tt>numASIDs-1</tt>.
+     */
+    public void setASID(int asid) {
+	Lib.assertTrue(usingTLB);
+	Lib.assertTrue(asid >= 0 && asid < numASIDs);
+
+	if (asid != this.asid) {
+	    this.asid = asid;
+	    invalidateLastTranslations();
+	}
+    }
+
+    /**
+     * Return the vpn index bucket for a vpn in an address space.
+     */
+    private int tlbBucket(int vpn, int asid) {
+	return (vpn ^ (asid * 0x9E3779B9 >>> 16)) & (tlbBuckets.length-1);
+    }
+
+    /**
+     * Add a valid TLB entry to the vpn and ASID index. The chain for each bucket is
+     * kept sorted by TLB index, so that a lookup finds the same entry that a
+     * scan of the TLB in index order would.
+     *
+     * @param	number	the index into the TLB.
+     */
+    private void indexTLBEntry(int number) {
+	int bucket = tlbBucket(translations[number].vpn, tlbASIDs[number]);
+	
+	int prev = -1, next = tlbBuckets[bucket];
+	while (next != -1 && next < number) {
+	    prev = next;
+	    next = tlbChain[next];
+	}
+
+	tlbChain[number] = next;
+	if (prev == -1)
+	    tlbBuckets[bucket] = number;
+	else
+	    tlbChain[prev] = number;
+
+	if (translations[number].superpage)
+	    numSuperpageEntries++;
+    }
+
+    /**
+     * Remove a valid TLB entry from the vpn and ASID index.
+     *
+     * @param	number	the index into the TLB.
+     */
+    private void unindexTLBEntry(int number) {
+	int bucket = tlbBucket(translations[number].vpn, tlbASIDs[number]);
+	
+	int prev = -1, next = tlbBuckets[bucket];
+	while (next != number) {
+	    prev = next;
+	    next = tlbChain[next];
+	}
+
+	if (prev == -1)
+	    tlbBuckets[bucket] = tlbChain[number];
+	else
+	    tlbChain[prev] = tlbChain[number];
+
+	if (translations[number].superpage)
+	    numSuperpageEntries--;
+    }
+
+    /**
+     * Find the valid TLB entry of the current address space for a vpn.
+     *
+     * @param	vpn		the virtual page number, or the first virtual
+     *				page of a superpage.
+     * @param	superpage	whether to find a superpage entry.
+     * @return	the index into the TLB, or -1.
+     */
+    private int findTLBEntry(int vpn, boolean superpage) {
+	int i = tlbBuckets[tlbBucket(vpn, asid)];
+	while (i != -1 &&
+	       (translations[i].vpn != vpn || tlbASIDs[i] != asid ||
+		translations[i].superpage != superpage))
+	    i = tlbChain[i];
+
+	return i;
     }
 
     /**
@@ -230,14 +460,148 @@ public final class Processor {
 
     /**
      * Return a reference to the physical memory array. The size of this array
-     * is <tt>pageSize * getNumPhysPages()</tt>.
+     * is <tt>pageSize * getNumPhysPages()</tt>. There is no such array if
+     * <tt>Processor.offHeapMemory</tt> is set; use <tt>getMemoryBuffer()</tt>
+     * or <tt>readMemory()</tt> and <tt>writeMemory()</tt> instead.
      *
      * @return	the main memory array.
      */
     public byte[] getMemory() {
+	Lib.assertTrue(mainMemory != null, "main memory is off-heap");
+
+	// the caller may write anywhere, so forget every decoded instruction
+	flushDecodeCache();
+	
+	return mainMemory;
+    }
+
+    /**
+     * Return a reference to the physical memory array, for direct access to
+     * <i>length</i> bytes starting at <i>paddr</i>, such as reading a file
+     * straight into memory. A caller that writes those bytes must call
+     * <tt>memoryWritten()</tt> once it is done, since the processor may
+     * decode the pages again while the write is in progress. There is no
+     * such array if memory is off-heap.
+     *
+     * @param	paddr	the first physical address that will be accessed.
+     * @param	length	the number of bytes that will be accessed.
+     * @return	the main memory array.
+     */
+    public byte[] getMemory(int paddr, int length) {
+	Lib.assertTrue(mainMemory != null, "main memory is off-heap");
+	checkPhysicalRange(paddr, length);
+
 	return mainMemory;
     }
 
+    /**
+     * Note that physical memory was written through the array returned by
+     * <tt>getMemory(paddr, length)</tt>. Only the decoded instructions of
+     * the pages written are discarded.
+     *
+     * @param	paddr	the first physical address written.
+     * @param	length	the number of bytes written.
+     */
+    public void memoryWritten(int paddr, int length) {
+	checkPhysicalRange(paddr, length);
+
+	invalidateDecodedPages(paddr, length);
+    }
+
+    /**
+     * Return a little-endian buffer over all of physical memory, whether or
+     * not it is kept off-heap. The buffer has its own position and limit.
+     *
+     * @return	a buffer over main memory.
+     */
+    public ByteBuffer getMemoryBuffer() {
+	// the caller may write anywhere, so forget every decoded instruction
+	flushDecodeCache();
+
+	return memoryBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Test whether physical memory is kept outside the Java heap.
+     *
+     * @return	<tt>true</tt> if <tt>Processor.offHeapMemory</tt> is set.
+     */
+    public boolean isMemoryOffHeap() {
+	return mainMemory == null;
+    }
+
+    /**
+     * Copy bytes from physical memory into an array.
+     *
+     * @param	paddr	the first physical address to read.
+     * @param	data	the array to copy into.
+     * @param	offset	the first byte of <i>data</i> to write.
+     * @param	length	the number of bytes to copy.
+     */
+    public void readMemory(int paddr, byte[] data, int offset, int length) {
+	checkPhysicalRange(paddr, length);
+
+	if (mainMemory != null) {
+	    System.arraycopy(mainMemory, paddr, data, offset, length);
+	}
+	else {
+	    ByteBuffer buffer = memoryBuffer.duplicate();
+	    buffer.position(paddr);
+	    buffer.get(data, offset, length);
+	}
+    }
+
+    /**
+     * Copy bytes from an array into physical memory. Only the decoded
+     * instructions of the pages written are discarded.
+     *
+     * @param	paddr	the first physical address to write.
+     * @param	data	the array to copy from.
+     * @param	offset	the first byte of <i>data</i> to read.
+     * @param	length	the number of bytes to copy.
+     */
+    public void writeMemory(int paddr, byte[] data, int offset, int length) {
+	checkPhysicalRange(paddr, length);
+
+	if (mainMemory != null) {
+	    System.arraycopy(data, offset, mainMemory, paddr, length);
+	}
+	else {
+	    ByteBuffer buffer = memoryBuffer.duplicate();
+	    buffer.position(paddr);
+	    buffer.put(data, offset, length);
+	}
+
+	invalidateDecodedPages(paddr, length);
+    }
+
+    /**
+     * Fill part of physical memory with zeros.
+     *
+     * @param	paddr	the first physical address to clear.
+     * @param	length	the number of bytes to clear.
+     */
+    public void zeroMemory(int paddr, int length) {
+	checkPhysicalRange(paddr, length);
+
+	if (mainMemory != null) {
+	    Arrays.fill(mainMemory, paddr, paddr+length, (byte) 0);
+	}
+	else {
+	    ByteBuffer buffer = memoryBuffer.duplicate();
+	    buffer.position(paddr);
+	    for (int done=0; done<length; done+=zeroPage.length)
+		buffer.put(zeroPage, 0, Math.min(zeroPage.length, length-done));
+	}
+
+	invalidateDecodedPages(paddr, length);
+    }
+
+    private void checkPhysicalRange(int paddr, int length) {
+	Lib.assertTrue(paddr >= 0 && length >= 0 &&
+		       paddr+length <= pageSize*numPhysPages);
+    }
+
     /**
      * Concatenate a page number and an offset into an address.
      *
@@ -286,21 +650,47 @@ public final class Processor {
      * resulting physical page is valid, and then return the resulting physical
      * address.
      *
+     * <p>
+     * The last successful translation is remembered in <i>last</i>, and is
+     * reused by the next translation of the same virtual page as long as the
+     * translation entry is still in place, still valid, and still maps the
+     * same physical page.
+     *
+     * @param	vaddr	the virtual address to translate.
+     * @param	size	the size of the memory reference (must be 1, 2, or 4).
+     * @param	writing	<tt>true</tt> if the memory reference is a write.
+     * @param	last	the last translation on this path (instruction fetch
+     *			or data access).
+     * @return		the physical address.
+     * @exception	MipsException	if a translation error occurred.
+     */
+    private int translate(int vaddr, int size, boolean writing,
+			  LastTranslation last) throws MipsException {
+	return translate(vaddr, size, writing, last, true);
+    }
+
+    /**
+     * Translate a virtual address into a physical address, as above, but
+     * leave counting a TLB hit to the caller if <i>countHit</i> is
+     * <tt>false</tt>. TLB misses are always counted.
+     *
      * @param	vaddr	the virtual address to translate.
      * @param	size	the size of the memory reference (must be 1, 2, or 4).
      * @param	writing	<tt>true</tt> if the memory reference is a write.
+     * @param	last	the last translation on this path (instruction fetch
+     *			or data access).
+     * @param	countHit	<tt>true</tt> to count a TLB hit.
      * @return		the physical address.
      * @exception	MipsException	if a translation error occurred.
      */
-    private int translate(int vaddr, int size, boolean writing)
+    private int translate(int vaddr, int size, boolean writing,
+			  LastTranslation last, boolean countHit)
 	throws MipsException {
-	if (Lib.test(dbgProcessor))
-	    System.out.println("\ttranslate vaddr=0x" + Lib.toHexString(vaddr)
-			       + (writing ? ", write" : ", read..."));
+	tracer.translate(vaddr, writing);
 
 	// check alignment
 	if ((vaddr & (size-1)) != 0) {
-	    Lib.debug(dbgProcessor, "\t\talignment error");
+	    tracer.message("\t\talignment error");
 	    throw new MipsException(exceptionAddressError, vaddr);
 	}
 
@@ -308,7 +698,28 @@ public final class Processor {
 	int vpn = pageFromAddress(vaddr);
 	int offset = offsetFromAddress(vaddr);
 
-	TranslationEntry entry = null;
+	TranslationEntry entry = last.entry;
+
+	// reuse the last translation if nothing about it has changed
+	if (vpn == last.vpn && entry.valid && entry.ppn == last.ppn &&
+	    (usingTLB || translations[vpn] == entry)) {
+	    if (entry.readOnly && writing) {
+		tracer.message("\t\tread-only exception");
+		throw new MipsException(exceptionReadOnly, vaddr);
+	    }
+
+	    entry.used = true;
+	    if (writing)
+		entry.dirty = true;
+
+	    if (usingTLB && countHit)
+		privilege.stats.numTLBHits++;
+
+	    int paddr = (last.frame*pageSize) + offset;
+
+	    tracer.translated(paddr);
+	    return paddr;
+	}
 
 	// if not using a TLB, then the vpn is an index into the table
 	if (!usingTLB) {
@@ -316,37 +727,43 @@ public final class Processor {
 		translations[vpn] == null ||
 		!translations[vpn].valid) {
 		privilege.stats.numPageFaults++;
-		Lib.debug(dbgProcessor, "\t\tpage fault");
+		tracer.message("\t\tpage fault");
 		throw new MipsException(exceptionPageFault, vaddr);
 	    }
 
 	    entry = translations[vpn];
 	}
-	// else, look through all TLB entries for matching vpn
+	// else, look up the vpn and ASID in the index of valid TLB entries
 	else {
-	    for (int i=0; i<tlbSize; i++) {
-		if (translations[i].valid && translations[i].vpn == vpn) {
-		    entry = translations[i];
-		    break;
-		}
+	    int i = findTLBEntry(vpn, false);
+	    if (i == -1 && numSuperpageEntries > 0)
+		i = findTLBEntry(vpn & -pagesPerSuperpage, true);
+	    
+	    if (i != -1) {
+		if (countHit)
+		    privilege.stats.numTLBHits++;
+		entry = translations[i];
 	    }
-	    if (entry == null) {
+	    else {
 		privilege.stats.numTLBMisses++;
-		Lib.debug(dbgProcessor, "\t\tTLB miss");
+		tracer.message("\t\tTLB miss");
 		throw new MipsException(exceptionTLBMiss, vaddr);
 	    }
 	}
 
 	// check if trying to write a read-only page
 	if (entry.readOnly && writing) {
-	    Lib.debug(dbgProcessor, "\t\tread-only exception");
+	    tracer.message("\t\tread-only exception");
 	    throw new MipsException(exceptionReadOnly, vaddr);
 	}
 
-	// check if physical page number is out of range
+	// check if physical page number is out of range; a superpage entry
+	// only holds the first page of the run
 	int ppn = entry.ppn;
+	if (usingTLB && entry.superpage)
+	    ppn += vpn - entry.vpn;
 	if (ppn < 0 || ppn >= numPhysPages) {
-	    Lib.debug(dbgProcessor, "\t\tbad ppn");
+	    tracer.message("\t\tbad ppn");
 	    throw new MipsException(exceptionBusError, vaddr);
 	}
 
@@ -355,13 +772,26 @@ public final class Processor {
 	if (writing)
 	    entry.dirty = true;
 
+	last.vpn = vpn;
+	last.entry = entry;
+	last.ppn = entry.ppn;
+	last.frame = ppn;
+
 	int paddr = (ppn*pageSize) + offset;
 
-	if (Lib.test(dbgProcessor))
-	    System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));	
+	tracer.translated(paddr);
 	return paddr;
     }
 
+    /**
+     * Forget the last translations on both the instruction fetch and data
+     * access paths.
+     */
+    private void invalidateLastTranslations() {
+	lastFetch.invalidate();
+	lastData.invalidate();
+    }
+
     /**
      * Read </i>size</i> (1, 2, or 4) bytes of virtual memory at <i>vaddr</i>,
      * and return the result.
@@ -372,18 +802,14 @@ public final class Processor {
      * @exception	MipsException	if a translation error occurred.
      */
     private int readMem(int vaddr, int size) throws MipsException {
-	if (Lib.test(dbgProcessor))
-	    System.out.println("\treadMem vaddr=0x" + Lib.toHexString(vaddr)
-			       + ", size=" + size);
+	tracer.readMem(vaddr, size);
 
 	Lib.assertTrue(size==1 || size==2 || size==4);
 	
-	int value = Lib.bytesToInt(mainMemory, translate(vaddr, size, false),
-				   size);
+	int value = loadPhysical(translate(vaddr, size, false, lastData),
+				 size);
 
-	if (Lib.test(dbgProcessor))
-	    System.out.println("\t\tvalue read=0x" +
-			       Lib.toHexString(value, size*2));
+	tracer.valueRead(value, size);
 	
 	return value;
     }
@@ -399,15 +825,128 @@ public final class Processor {
      */
     private void writeMem(int vaddr, int size, int value)
 	throws MipsException {
-	if (Lib.test(dbgProcessor))
-	    System.out.println("\twriteMem vaddr=0x" + Lib.toHexString(vaddr)
-			       + ", size=" + size + ", value=0x"
-			       + Lib.toHexString(value, size*2));
+	tracer.writeMem(vaddr, size, value);
 
 	Lib.assertTrue(size==1 || size==2 || size==4);
+
+	int paddr = translate(vaddr, size, true, lastData);
 	
-	Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size,
-			 value);
+	storePhysical(paddr, size, value);
+
+	invalidateDecodedPage(paddr / pageSize);
+    }
+
+    /**
+     * Read <i>size</i> (1, 2, or 4) bytes of physical memory, sign-extended
+     * like <tt>Lib.bytesToInt()</tt>.
+     */
+    private int loadPhysical(int paddr, int size) {
+	if (mainMemory != null)
+	    return Lib.bytesToInt(mainMemory, paddr, size);
+
+	switch (size) {
+	case 1:
+	    return memoryBuffer.get(paddr);
+	case 2:
+	    return memoryBuffer.getShort(paddr);
+	default:
+	    return memoryBuffer.getInt(paddr);
+	}
+    }
+
+    /**
+     * Write the low <i>size</i> (1, 2, or 4) bytes of <i>value</i> to
+     * physical memory.
+     */
+    private void storePhysical(int paddr, int size, int value) {
+	if (mainMemory != null) {
+	    Lib.bytesFromInt(mainMemory, paddr, size, value);
+	    return;
+	}
+
+	switch (size) {
+	case 1:
+	    memoryBuffer.put(paddr, (byte) value);
+	    break;
+	case 2:
+	    memoryBuffer.putShort(paddr, (short) value);
+	    break;
+	default:
+	    memoryBuffer.putInt(paddr, value);
+	    break;
+	}
+    }
+
+    /**
+     * Read the instruction at virtual address <i>vaddr</i>, returning its
+     * decoded form. The decoded form is taken from the decode cache if the
+     * physical page has been decoded since it was last written, and is
+     * decoded and cached otherwise. Produces the same debug output as
+     * <tt>readMem(vaddr, 4)</tt>.
+     *
+     * @param	vaddr	the virtual address of the instruction.
+     * @return		the decoded instruction.
+     * @exception	MipsException	if a translation error occurred.
+     */
+    private DecodedInstruction fetchDecoded(int vaddr) throws MipsException {
+	tracer.readMem(vaddr, 4);
+
+	int paddr = translate(vaddr, 4, false, lastFetch);
+
+	DecodedInstruction decoded =
+	    getDecodedPage(paddr / pageSize).get((paddr % pageSize) / 4);
+
+	tracer.valueRead(decoded.value, 4);
+
+	return decoded;
+    }
+
+    /**
+     * Return the decoded form of the specified physical page, creating an
+     * empty one if the page has not been decoded since it was last written.
+     *
+     * @param	ppn	the physical page number.
+     * @return	the decoded page.
+     */
+    private DecodedPage getDecodedPage(int ppn) {
+	DecodedPage page = decodeCache[ppn];
+	if (page == null) {
+	    page = new DecodedPage(ppn);
+	    decodeCache[ppn] = page;
+	}
+
+	return page;
+    }
+
+    /**
+     * Discard the decoded instructions cached for the specified physical
+     * page. Must be called whenever the contents of the page may change.
+     *
+     * @param	ppn	the physical page number.
+     */
+    private void invalidateDecodedPage(int ppn) {
+	decodeCache[ppn] = null;
+    }
+
+    /**
+     * Discard the decoded instructions of every page that overlaps
+     * <i>length</i> bytes of physical memory starting at <i>paddr</i>.
+     */
+    private void invalidateDecodedPages(int paddr, int length) {
+	if (length == 0)
+	    return;
+
+	int lastPPN = (paddr+length-1) / pageSize;
+	for (int ppn=paddr/pageSize; ppn<=lastPPN; ppn++)
+	    decodeCache[ppn] = null;
+    }
+
+    /**
+     * Discard every decoded instruction in the decode cache.
+     */
+    private void flushDecodeCache() {
+	for (int i=0; i<decodeCache.length; i++)
+	    decodeCache[i] = null;
     }
 
     /**
@@ -463,6 +1002,239 @@ public final class Processor {
 	registers[regNextPC] = nextPC;
     }
 
+    /**
+     * Execute an instruction that the block engine has specialized. Has
+     * exactly the same effect as decoding, executing, and writing back the
+     * instruction through <tt>Instruction</tt>, but without the work that
+     * does not apply to the instruction.
+     *
+     * @param	inst	the decoded instruction, whose <tt>blockOp</tt> is not
+     *			<tt>BlockOp.GENERIC</tt>.
+     * @exception	MipsException	if a translation error occurred.
+     */
+    private void runBlockOp(DecodedInstruction inst) throws MipsException {
+	int nextPC = registers[regNextPC]+4;
+	int value;
+
+	switch (inst.blockOp) {
+	case BlockOp.ADDU:
+	    value = registers[inst.rs] + registers[inst.rt];
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.SUBU:
+	    value = registers[inst.rs] - registers[inst.rt];
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.AND:
+	    value = registers[inst.rs] & registers[inst.rt];
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.OR:
+	    value = registers[inst.rs] | registers[inst.rt];
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.XOR:
+	    value = registers[inst.rs] ^ registers[inst.rt];
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.NOR:
+	    value = ~(registers[inst.rs] | registers[inst.rt]);
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.SLT:
+	    value = (registers[inst.rs] < registers[inst.rt]) ? 1 : 0;
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.SLTU:
+	    value = ((registers[inst.rs] & 0xFFFFFFFFL) <
+		     (registers[inst.rt] & 0xFFFFFFFFL)) ? 1 : 0;
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.SLLV:
+	    value = registers[inst.rt] << (registers[inst.rs]&0x1F);
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.SRLV:
+	    // the interpreter shifts the sign-extended long, so do the same
+	    value = (int) (((long) registers[inst.rt]) >>>
+			   (registers[inst.rs]&0x1F));
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.SRAV:
+	    value = registers[inst.rt] >> (registers[inst.rs]&0x1F);
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.SLL:
+	    value = registers[inst.rt] << inst.sh;
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.SRL:
+	    value = (int) (((long) registers[inst.rt]) >>> inst.sh);
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.SRA:
+	    value = registers[inst.rt] >> inst.sh;
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.ADDIU:
+	    value = registers[inst.rs] + inst.imm;
+	    finishLoad();
+	    writeDst(inst.rt, value);
+	    break;
+	case BlockOp.SLTI:
+	    value = (registers[inst.rs] < inst.imm) ? 1 : 0;
+	    finishLoad();
+	    writeDst(inst.rt, value);
+	    break;
+	case BlockOp.SLTIU:
+	    value = ((registers[inst.rs] & 0xFFFFFFFFL) <
+		     (inst.imm & 0xFFFF)) ? 1 : 0;
+	    finishLoad();
+	    writeDst(inst.rt, value);
+	    break;
+	case BlockOp.ANDI:
+	    value = registers[inst.rs] & (inst.imm & 0xFFFF);
+	    finishLoad();
+	    writeDst(inst.rt, value);
+	    break;
+	case BlockOp.ORI:
+	    value = registers[inst.rs] | (inst.imm & 0xFFFF);
+	    finishLoad();
+	    writeDst(inst.rt, value);
+	    break;
+	case BlockOp.XORI:
+	    value = registers[inst.rs] ^ (inst.imm & 0xFFFF);
+	    finishLoad();
+	    writeDst(inst.rt, value);
+	    break;
+	case BlockOp.LUI:
+	    finishLoad();
+	    writeDst(inst.rt, (inst.imm & 0xFFFF) << 16);
+	    break;
+	case BlockOp.MFLO:
+	    value = registers[regLo];
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.MFHI:
+	    value = registers[regHi];
+	    finishLoad();
+	    writeDst(inst.rd, value);
+	    break;
+	case BlockOp.MULT:
+	case BlockOp.MULTU:
+	    long product;
+	    if (inst.blockOp == BlockOp.MULT)
+		product = (long) registers[inst.rs] * registers[inst.rt];
+	    else
+		product = (registers[inst.rs] & 0xFFFFFFFFL) *
+		    (registers[inst.rt] & 0xFFFFFFFFL);
+	    registers[regLo] = (int) product;
+	    registers[regHi] = (int) (product >>> 32);
+	    finishLoad();
+	    break;
+	case BlockOp.LB:
+	    value = readMem(registers[inst.rs] + inst.imm, 1);
+	    delayedLoad(inst.rt, Lib.extend(value, 0, 8), 0xFFFFFFFF);
+	    break;
+	case BlockOp.LBU:
+	    // the interpreter zero-extends the offset of unsigned loads
+	    value = readMem(registers[inst.rs] + (inst.imm & 0xFFFF), 1);
+	    delayedLoad(inst.rt, value, 0xFFFFFFFF);
+	    break;
+	case BlockOp.LH:
+	    value = readMem(registers[inst.rs] + inst.imm, 2);
+	    delayedLoad(inst.rt, Lib.extend(value, 0, 16), 0xFFFFFFFF);
+	    break;
+	case BlockOp.LHU:
+	    value = readMem(registers[inst.rs] + (inst.imm & 0xFFFF), 2);
+	    delayedLoad(inst.rt, value, 0xFFFFFFFF);
+	    break;
+	case BlockOp.LW:
+	    value = readMem(registers[inst.rs] + inst.imm, 4);
+	    delayedLoad(inst.rt, value, 0xFFFFFFFF);
+	    break;
+	case BlockOp.SB:
+	    writeMem(registers[inst.rs] + inst.imm, 1, registers[inst.rt]);
+	    finishLoad();
+	    break;
+	case BlockOp.SH:
+	    writeMem(registers[inst.rs] + inst.imm, 2, registers[inst.rt]);
+	    finishLoad();
+	    break;
+	case BlockOp.SW:
+	    writeMem(registers[inst.rs] + inst.imm, 4, registers[inst.rt]);
+	    finishLoad();
+	    break;
+	case BlockOp.BRANCH:
+	    boolean branch;
+	    switch (inst.info.operation) {
+	    case Mips.BEQ:
+		branch = (registers[inst.rs] == registers[inst.rt]);
+		break;
+	    case Mips.BNE:
+		branch = (registers[inst.rs] != registers[inst.rt]);
+		break;
+	    case Mips.BLEZ:
+		branch = (registers[inst.rs] <= 0);
+		break;
+	    case Mips.BGTZ:
+		branch = (registers[inst.rs] > 0);
+		break;
+	    case Mips.BLTZ:
+		branch = (registers[inst.rs] < 0);
+		break;
+	    default:
+		branch = (registers[inst.rs] >= 0);
+		break;
+	    }
+	    value = registers[regNextPC] + (inst.imm<<2);
+	    finishLoad();
+	    if (Lib.test(Mips.LINK, inst.info.flags))
+		registers[regRA] = nextPC;
+	    if (branch)
+		nextPC = value;
+	    break;
+	case BlockOp.JUMP:
+	    value = (registers[regNextPC]&0xF0000000) | (inst.target<<2);
+	    finishLoad();
+	    if (Lib.test(Mips.LINK, inst.info.flags))
+		registers[regRA] = nextPC;
+	    nextPC = value;
+	    break;
+	case BlockOp.JUMPREG:
+	    value = registers[inst.rs];
+	    finishLoad();
+	    if (Lib.test(Mips.LINK, inst.info.flags))
+		writeDst(inst.rd, nextPC);
+	    nextPC = value;
+	    break;
+	default:
+	    Lib.assertNotReached();
+	}
+
+	advancePC(nextPC);
+    }
+
+    private void writeDst(int dstReg, int value) {
+	if (dstReg != 0)
+	    registers[dstReg] = value;
+    }
+
     /** Caused by a syscall instruction. */
     public static final int exceptionSyscall = 0;
     /** Caused by an access to an invalid virtual page. */
@@ -541,34 +1313,207 @@ public final class Processor {
     private boolean usingTLB;
     /** Number of TLB entries. */
     private int tlbSize = 4;
+    /** The current address space ID. */
+    private int asid = 0;
+    /** Number of pages mapped by a superpage TLB entry. */
+    private int pagesPerSuperpage;
+    /** Number of valid superpage entries in the TLB. */
+    private int numSuperpageEntries = 0;
     /**
      * Either an associative or direct-mapped set of translation entries,
      * depending on whether there is a TLB.
      */
     private TranslationEntry[] translations;
+    /** The last translation used to fetch an instruction. */
+    private LastTranslation lastFetch = new LastTranslation();
+    /** The last translation used to read or write data. */
+    private LastTranslation lastData = new LastTranslation();
+    /**
+     * Index of the valid TLB entries by vpn and ASID. Each bucket holds the
+     * TLB index of the first entry whose vpn and ASID hash to the bucket, or
+     * -1.
+     */
+    private int[] tlbBuckets;
+    /** The TLB index of the next entry in the same bucket, or -1. */
+    private int[] tlbChain;
+    /** The ASID that each TLB entry is tagged with. */
+    private int[] tlbASIDs;
 
     /** Size of a page, in bytes. */
     public static final int pageSize = 0x400;
     /** Number of pages in a 32-bit address space. */
     public static final int maxPages = (int) (0x100000000L / pageSize);
+    /** Number of address space IDs that TLB entries can be tagged with. */
+    public static final int numASIDs = 64;
     /** Number of physical pages in memory. */
     private int numPhysPages;
-    /** Main memory for user programs. */
+    /**
+     * Main memory for user programs, or <tt>null</tt> if it is kept off-heap.
+     */
     private byte[] mainMemory;
+    /**
+     * A little-endian buffer over main memory. This is the only copy of
+     * memory if it is kept off-heap.
+     */
+    private ByteBuffer memoryBuffer;
+    /** A page of zeros, for clearing off-heap memory. */
+    private static final byte[] zeroPage = new byte[pageSize];
+    /**
+     * Decoded instructions, indexed by physical page number. A <tt>null</tt>
+     * page has not been decoded since it was last written.
+     */
+    private DecodedPage[] decodeCache;
+    /**
+     * <tt>true</tt> if straight-line blocks of user code should be run as a
+     * unit. Set by the <tt>Processor.engine</tt> key in <tt>nachos.conf</tt>.
+     */
+    private boolean usingBlockEngine = false;
+    /**
+     * The most user ticks the processor will run before charging them, so
+     * that statistics stay current even when no interrupt is pending.
+     */
+    private static final int maxBatchTicks = 10000;
 
     /** The kernel exception handler, called on every user exception. */
     private Runnable exceptionHandler = null;
 
+    /** Produces debug output, if any is enabled. */
+    private Tracer tracer;
+
     private static final char dbgProcessor = 'p';
     private static final char dbgDisassemble = 'm';
     private static final char dbgFullDisassemble = 'M';
 
+    /**
+     * Receives the events that the <tt>p</tt>, <tt>m</tt>, and <tt>M</tt>
+     * debug flags trace. This tracer ignores them all, so that when no
+     * processor debugging is enabled, the processor does no work (and tests
+     * no flags) to trace.
+     */
+    private class Tracer {
+	/** Return <tt>true</tt> if this tracer produces output. */
+	boolean tracing() { return false; }
+
+	/** A processor debug message, such as the cause of a fault. */
+	void message(String message) {}
+	void translate(int vaddr, boolean writing) {}
+	void translated(int paddr) {}
+	void readMem(int vaddr, int size) {}
+	void valueRead(int value, int size) {}
+	void writeMem(int vaddr, int size, int value) {}
+	void exception(int cause) {}
+	/** Called before the instruction at the PC is fetched. */
+	void fetch() {}
+	void decoded(Instruction inst) {}
+	void writtenBack(Instruction inst) {}
+    }
+
+    /**
+     * A tracer that prints the events enabled by the debug flags. Only
+     * constructed if at least one of them is enabled.
+     */
+    private class DebugTracer extends Tracer {
+	boolean tracing() { return true; }
+	
+	void message(String message) {
+	    Lib.debug(dbgProcessor, message);
+	}
+
+	void translate(int vaddr, boolean writing) {
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\ttranslate vaddr=0x" +
+				   Lib.toHexString(vaddr)
+				   + (writing ? ", write" : ", read..."));
+	}
+
+	void translated(int paddr) {
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));
+	}
+
+	void readMem(int vaddr, int size) {
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\treadMem vaddr=0x" + Lib.toHexString(vaddr)
+				   + ", size=" + size);
+	}
+
+	void valueRead(int value, int size) {
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\t\tvalue read=0x" +
+				   Lib.toHexString(value, size*2));
+	}
+
+	void writeMem(int vaddr, int size, int value) {
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\twriteMem vaddr=0x" +
+				   Lib.toHexString(vaddr)
+				   + ", size=" + size + ", value=0x"
+				   + Lib.toHexString(value, size*2));
+	}
+
+	void exception(int cause) {
+	    if (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble))
+		System.out.println("exception: " + exceptionNames[cause]);
+	}
+
+	void fetch() {
+	    if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) ||
+		Lib.test(dbgFullDisassemble))
+		System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
+				 + "\t");
+	}
+
+	void decoded(Instruction inst) {
+	    if (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble))
+		inst.print();
+	}
+
+	void writtenBack(Instruction inst) {
+	    if ((inst.test(Mips.DST) || inst.test(Mips.DELAYEDLOAD)) &&
+		inst.dstReg != 0) {
+		if (Lib.test(dbgFullDisassemble)) {
+		    System.out.print("#0x" + Lib.toHexString((int) inst.dst));
+		    if (inst.test(Mips.DELAYEDLOAD))
+			System.out.print(" (delayed load)");
+		}
+	    }
+
+	    if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) ||
+		Lib.test(dbgFullDisassemble))
+		System.out.print("\n");
+	}
+    }
+
     private class ProcessorPrivilege implements Privilege.ProcessorPrivilege {
 	public void flushPipe() {
 	    finishLoad();
 	}
     }
 
+    /**
+     * A one-entry cache of the last successful translation on one path.
+     */
+    private static class LastTranslation {
+	void invalidate() {
+	    vpn = -1;
+	    entry = unused;
+	}
+
+	/** The virtual page number, or -1 if there is no last translation. */
+	int vpn = -1;
+	/** The translation entry used, never <tt>null</tt>. */
+	TranslationEntry entry = unused;
+	/** The physical page number the entry had when it was used. */
+	int ppn;
+	/**
+	 * The physical page translated to, which differs from <tt>ppn</tt>
+	 * for a superpage entry.
+	 */
+	int frame;
+
+	private static final TranslationEntry unused = new TranslationEntry();
+    }
+
     private class MipsException extends Exception {
 	public MipsException(int cause) {
 	    Lib.assertTrue(cause >= 0 && cause < exceptionNames.length);
@@ -589,8 +1534,7 @@ public final class Processor {
 	    if (hasBadVAddr)
 		writeRegister(regBadVAddr, badVAddr);
 
-	    if (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble))
-		System.out.println("exception: " + exceptionNames[cause]);
+	    tracer.exception(cause);
 
 	    finishLoad();
 
@@ -616,41 +1560,140 @@ public final class Processor {
 	    writeBack();
 	}	
 
+	/**
+	 * Run basic blocks starting at the current PC, each as a unit, until
+	 * the next one could run past the time when the next interrupt is due.
+	 * One user tick per instruction is charged after the last block.
+	 *
+	 * @return	<tt>false</tt> if no block could be run, in which case
+	 *		the caller should single-step the next instruction.
+	 */
+	public boolean runBlocks() {
+	    long available = Math.min(privilege.interrupt.ticksUntilDue(),
+				      maxBatchTicks);
+	    if (available <= 0)
+		return false;
+
+	    int executed = 0;
+
+	    try {
+		while (true) {
+		    int pc = registers[regPC];
+		    // the hit is counted below, once the block is known to fit
+		    int paddr = translate(pc, 4, false, lastFetch, false);
+		    DecodedPage page = getDecodedPage(paddr / pageSize);
+		    int index = (paddr % pageSize) / 4;
+
+		    int length = page.getBlockLength(index);
+		    if ((long) (executed + length) * Stats.UserTick > available)
+			break;
+
+		    // stop early if the block branches away or overwrites its
+		    // own page
+		    int end = executed + length;
+		    while (executed < end && registers[regPC] == pc &&
+			   decodeCache[page.ppn] == page) {
+			// the whole block is fetched through the same
+			// translation, so count a TLB hit for each instruction
+			if (usingTLB)
+			    privilege.stats.numTLBHits++;
+
+			decoded = page.get(index++);
+			if (decoded.blockOp != BlockOp.GENERIC) {
+			    runBlockOp(decoded);
+			}
+			else {
+			    decode();
+			    execute();
+			    writeBack();
+			}
+			executed++;
+			pc += 4;
+		    }
+		}
+	    }
+	    catch (MipsException e) {
+		if (executed > 0)
+		    privilege.interrupt.tick(false, executed);
+		e.handle();
+		privilege.interrupt.tick(false);
+		return true;
+	    }
+
+	    if (executed == 0)
+		return false;
+
+	    privilege.interrupt.tick(false, executed);
+	    return true;
+	}
+
+	/**
+	 * Run instructions one at a time until the next interrupt is due,
+	 * charging one user tick per instruction after the last one. Has the
+	 * same effect as calling <tt>run()</tt> and ticking after each
+	 * instruction, since no interrupt handler could have run in between.
+	 */
+	public void runUntilDue() {
+	    long available = Math.min(privilege.interrupt.ticksUntilDue(),
+				      maxBatchTicks);
+
+	    // an interrupt is already overdue if a handler switched threads
+	    // before the others due at the same time ran, so step once and let
+	    // the tick run them
+	    if (available <= 0) {
+		try {
+		    run();
+		}
+		catch (MipsException e) {
+		    e.handle();
+		}
+
+		privilege.interrupt.tick(false);
+		return;
+	    }
+
+	    int executed = 0;
+
+	    try {
+		do {
+		    run();
+		    executed++;
+		}
+		while ((long) executed * Stats.UserTick < available);
+	    }
+	    catch (MipsException e) {
+		if (executed > 0)
+		    privilege.interrupt.tick(false, executed);
+		e.handle();
+		privilege.interrupt.tick(false);
+		return;
+	    }
+
+	    privilege.interrupt.tick(false, executed);
+	}
+
 	private boolean test(int flag) {
 	    return Lib.test(flag, flags);
 	}
 
 	private void fetch() throws MipsException {
-	    if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) ||
-		Lib.test(dbgFullDisassemble))
-		System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
-				 + "\t");
+	    tracer.fetch();
 
-	    value = readMem(registers[regPC], 4);
+	    decoded = fetchDecoded(registers[regPC]);
 	}
 	
 	private void decode() {
-	    op = Lib.extract(value, 26, 6);
-	    rs = Lib.extract(value, 21, 5);
-	    rt = Lib.extract(value, 16, 5);
-	    rd = Lib.extract(value, 11, 5);
-	    sh = Lib.extract(value, 6, 5);
-	    func = Lib.extract(value, 0, 6);
-	    target = Lib.extract(value, 0, 26);
-	    imm = Lib.extend(value, 0, 16);
-
-	    Mips info;
-	    switch (op) {
-	    case 0:
-		info = Mips.specialtable[func];
-		break;
-	    case 1:
-		info = Mips.regimmtable[rt];
-		break;
-	    default:
-		info = Mips.optable[op];
-		break;
-	    }
+	    value = decoded.value;
+	    op = decoded.op;
+	    rs = decoded.rs;
+	    rt = decoded.rt;
+	    rd = decoded.rd;
+	    sh = decoded.sh;
+	    func = decoded.func;
+	    target = decoded.target;
+	    imm = decoded.imm;
+
+	    Mips info = decoded.info;
 
 	    operation = info.operation;
 	    name = info.name;
@@ -718,8 +1761,7 @@ public final class Processor {
 		src2 &= 0xFFFFFFFFL;
 	    }	    
 
-	    if (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble))
-		print();	    
+	    tracer.decoded(this);
 	}
 
 	private void print() {
@@ -1032,26 +2074,17 @@ public final class Processor {
 	    if (test(Mips.DST) && dstReg != 0)
 		registers[dstReg] = (int) dst;
 
-	    if ((test(Mips.DST) || test(Mips.DELAYEDLOAD)) && dstReg != 0) {
-		if (Lib.test(dbgFullDisassemble)) {
-		    System.out.print("#0x" + Lib.toHexString((int) dst));
-		    if (test(Mips.DELAYEDLOAD))
-			System.out.print(" (delayed load)");
-		}
-	    }
-
 	    if (test(Mips.BRANCH) && branch) {
 		nextPC = jtarget;
 	    }
 
 	    advancePC(nextPC);
 
-	    if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) ||
-		Lib.test(dbgFullDisassemble))
-		System.out.print("\n");
+	    tracer.writtenBack(this);
 	}
     
 	// state used to execute a single instruction
+	DecodedInstruction decoded;
 	int value, op, rs, rt, rd, sh, func, target, imm;
 	int operation, format, flags;
 	String name;
@@ -1063,6 +2096,219 @@ public final class Processor {
 	boolean branch;
     }
 
+    /**
+     * The decoded instructions of one physical page, along with the lengths
+     * of the basic blocks starting at each instruction.
+     */
+    private class DecodedPage {
+	DecodedPage(int ppn) {
+	    this.ppn = ppn;
+	    base = ppn * pageSize;
+	}
+
+	/**
+	 * Return the decoded instruction at the specified word of this page,
+	 * decoding it if necessary.
+	 */
+	DecodedInstruction get(int index) {
+	    DecodedInstruction decoded = instructions[index];
+	    if (decoded == null) {
+		decoded = new DecodedInstruction(
+		    loadPhysical(base + index*4, 4));
+		instructions[index] = decoded;
+	    }
+
+	    return decoded;
+	}
+
+	/**
+	 * Return the number of instructions in the straight-line block that
+	 * starts at the specified word of this page. A block ends after the
+	 * delay slot of a branch, at any instruction that always traps, or at
+	 * the end of the page.
+	 */
+	int getBlockLength(int index) {
+	    if (blockLengths[index] != 0)
+		return blockLengths[index];
+
+	    int end = index;
+	    while (end < instructions.length) {
+		Mips info = get(end++).info;
+
+		if (Lib.test(Mips.BRANCH, info.flags)) {
+		    // include the delay slot, if it is on this page
+		    if (end < instructions.length)
+			end++;
+		    break;
+		}
+		if (info.operation == Mips.SYSCALL ||
+		    info.operation == Mips.UNIMPL ||
+		    info.operation == Mips.INVALID)
+		    break;
+	    }
+
+	    blockLengths[index] = end - index;
+	    return end - index;
+	}
+
+	private int ppn, base;
+	private DecodedInstruction[] instructions =
+	    new DecodedInstruction[pageSize / 4];
+	private int[] blockLengths = new int[pageSize / 4];
+    }
+
+    /**
+     * The fields of an instruction word that do not depend on processor
+     * state, extracted once and cached by physical address.
+     */
+    private static class DecodedInstruction {
+	DecodedInstruction(int value) {
+	    this.value = value;
+	    
+	    op = Lib.extract(value, 26, 6);
+	    rs = Lib.extract(value, 21, 5);
+	    rt = Lib.extract(value, 16, 5);
+	    rd = Lib.extract(value, 11, 5);
+	    sh = Lib.extract(value, 6, 5);
+	    func = Lib.extract(value, 0, 6);
+	    target = Lib.extract(value, 0, 26);
+	    imm = Lib.extend(value, 0, 16);
+
+	    switch (op) {
+	    case 0:
+		info = Mips.specialtable[func];
+		break;
+	    case 1:
+		info = Mips.regimmtable[rt];
+		break;
+	    default:
+		info = Mips.optable[op];
+		break;
+	    }
+
+	    blockOp = BlockOp.select(info);
+	}
+
+	final int value, op, rs, rt, rd, sh, func, target, imm;
+	final Mips info;
+	/** How the block engine executes this instruction. */
+	final int blockOp;
+    }
+
+    /**
+     * The instructions that the block engine executes without going through
+     * <tt>Instruction</tt>. Instructions that can overflow or that are rarely
+     * used are left <tt>GENERIC</tt>.
+     */
+    private static class BlockOp {
+	static int select(Mips info) {
+	    int flags = info.flags;
+	    boolean unsigned = Lib.test(Mips.UNSIGNED, flags);
+	    boolean rfmt = (info.format == Mips.RFMT);
+
+	    if (Lib.test(Mips.OVERFLOW, flags))
+		return GENERIC;
+	    
+	    switch (info.operation) {
+	    case Mips.ADD:
+		return rfmt ? ADDU : ADDIU;
+	    case Mips.SUB:
+		return SUBU;
+	    case Mips.AND:
+		return rfmt ? AND : ANDI;
+	    case Mips.OR:
+		return rfmt ? OR : ORI;
+	    case Mips.XOR:
+		return rfmt ? XOR : XORI;
+	    case Mips.NOR:
+		return NOR;
+	    case Mips.SLT:
+		if (rfmt)
+		    return unsigned ? SLTU : SLT;
+		else
+		    return unsigned ? SLTIU : SLTI;
+	    case Mips.SLL:
+		return Lib.test(Mips.SRC1SH, flags) ? SLL : SLLV;
+	    case Mips.SRL:
+		return Lib.test(Mips.SRC1SH, flags) ? SRL : SRLV;
+	    case Mips.SRA:
+		return Lib.test(Mips.SRC1SH, flags) ? SRA : SRAV;
+	    case Mips.LUI:
+		return LUI;
+	    case Mips.MFLO:
+		return MFLO;
+	    case Mips.MFHI:
+		return MFHI;
+	    case Mips.MULT:
+		return unsigned ? MULTU : MULT;
+	    case Mips.LOAD:
+		if (Lib.test(Mips.SIZEB, flags))
+		    return unsigned ? LBU : LB;
+		else if (Lib.test(Mips.SIZEH, flags))
+		    return unsigned ? LHU : LH;
+		else
+		    return LW;
+	    case Mips.STORE:
+		if (Lib.test(Mips.SIZEB, flags))
+		    return SB;
+		else if (Lib.test(Mips.SIZEH, flags))
+		    return SH;
+		else
+		    return SW;
+	    case Mips.BEQ:
+	    case Mips.BNE:
+	    case Mips.BLEZ:
+	    case Mips.BGTZ:
+	    case Mips.BLTZ:
+	    case Mips.BGEZ:
+		return BRANCH;
+	    case Mips.JUMP:
+		return rfmt ? JUMPREG : JUMP;
+	    default:
+		return GENERIC;
+	    }
+	}
+
+	static final int
+	    GENERIC	= 0,
+	    ADDU	= 1,
+	    SUBU	= 2,
+	    AND		= 3,
+	    OR		= 4,
+	    XOR		= 5,
+	    NOR		= 6,
+	    SLT		= 7,
+	    SLTU	= 8,
+	    SLLV	= 9,
+	    SRLV	= 10,
+	    SRAV	= 11,
+	    SLL		= 12,
+	    SRL		= 13,
+	    SRA		= 14,
+	    ADDIU	= 15,
+	    SLTI	= 16,
+	    SLTIU	= 17,
+	    ANDI	= 18,
+	    ORI		= 19,
+	    XORI	= 20,
+	    LUI		= 21,
+	    MFLO	= 22,
+	    MFHI	= 23,
+	    MULT	= 24,
+	    MULTU	= 25,
+	    LB		= 26,
+	    LBU		= 27,
+	    LH		= 28,
+	    LHU		= 29,
+	    LW		= 30,
+	    SB		= 31,
+	    SH		= 32,
+	    SW		= 33,
+	    BRANCH	= 34,
+	    JUMP	= 35,
+	    JUMPREG	= 36;
+    }
+
     private static class Mips {
 	Mips() {
 	}
@@ -27,10 +27,36 @@ public final class Stats {
 			   + ", writes " + numConsoleWrites);
 	System.out.println("Paging: page faults " + numPageFaults
 			   + ", TLB misses " + numTLBMisses);
+	// only kernels with a TLB, swapping or prefetching use these
+	if (numTLBHits + numTLBMisses + numTLBFlushes > 0) {
+	    System.out.println("TLB: hits " + numTLBHits
+			       + ", flushes " + numTLBFlushes
+			       + ", hit rate "
+			       + String.format("%.1f%%", 100 * tlbHitRate()));
+	}
+	if (numSwapReads + numSwapWrites > 0) {
+	    System.out.println("Swap I/O: reads " + numSwapReads
+			       + ", writes " + numSwapWrites);
+	}
+	if (numPrefetchHits + numPrefetchMisses > 0) {
+	    System.out.println("Prefetch: hits " + numPrefetchHits
+			       + ", misses " + numPrefetchMisses);
+	}
 	System.out.println("Network I/O: received " + numPacketsReceived
 			   + ", sent " + numPacketsSent);
     }
 
+    /**
+     * Return the fraction of translations that were found in the TLB.
+     *
+     * @return	the TLB hit rate, or <tt>0</tt> if the TLB was never used.
+     */
+    public double tlbHitRate() {
+	long lookups = numTLBHits + numTLBMisses;
+
+	return (lookups == 0) ? 0 : (double) numTLBHits / lookups;
+    }
+
     /**
      * The total amount of simulated time that has passed since Nachos
      * started.
@@ -57,6 +83,18 @@ public final class Stats {
     public int numPageFaults = 0;
     /** The total number of TLB misses that have occurred. */
     public int numTLBMisses = 0;
+    /** The total number of translations found in the TLB. */
+    public long numTLBHits = 0;
+    /** The total number of times the kernel has flushed a whole TLB. */
+    public int numTLBFlushes = 0;
+    /** The total number of pages the kernel has read from swap. */
+    public int numSwapReads = 0;
+    /** The total number of pages the kernel has written to swap. */
+    public int numSwapWrites = 0;
+    /** The total number of prefetched pages that were used. */
+    public int numPrefetchHits = 0;
+    /** The total number of prefetched pages discarded without being used. */
+    public int numPrefetchMisses = 0;
     /** The total number of packets Nachos has sent to the network. */
     public int numPacketsSent = 0;
     /** The total number of packets Nachos has received from the network. */
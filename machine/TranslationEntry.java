@@ -48,6 +48,7 @@ public final class TranslationEntry {
 	readOnly = entry.readOnly;
 	used = entry.used;
 	dirty = entry.dirty;
+	superpage = entry.superpage;
     }
 
     public String toString() {
@@ -82,4 +83,13 @@ public final class TranslationEntry {
      * user program.
      */
     public boolean dirty;
+
+    /**
+     * If this flag is <tt>true</tt>, this TLB entry maps a whole superpage:
+     * the <tt>Processor.getPagesPerSuperpage()</tt> virtual pages starting at
+     * <tt>vpn</tt> to as many physical pages starting at <tt>ppn</tt>. Both
+     * must be multiples of the superpage size. The used and dirty bits cover
+     * all of the pages. Page tables do not use this flag.
+     */
+    public boolean superpage;
 }
@@ -158,6 +158,27 @@ public abstract class Privilege {
 	 *		MIPS user code.
 	 */
 	public void tick(boolean inKernelMode);
+
+	/**
+	 * Advance the simulated time by <i>count</i> ticks at once, checking
+	 * for due interrupts only after the last one. No interrupt may become
+	 * due before the last tick.
+	 *
+	 * @param inKernelMode	<tt>true</tt> if the current thread is running kernel
+	 *		code, <tt>false</tt> if the current thread is running
+	 *		MIPS user code.
+	 * @param count	the number of ticks, at least 1.
+	 */
+	public void tick(boolean inKernelMode, int count);
+
+	/**
+	 * Return the amount of simulated time that may pass before the next
+	 * pending interrupt is due.
+	 *
+	 * @return	the time until the next interrupt is due, or
+	 *		<tt>Long.MAX_VALUE</tt> if no interrupt is pending.
+	 */
+	public long ticksUntilDue();
     }
 
     /**
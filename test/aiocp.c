@@ -0,0 +1,86 @@
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+#define BUFSIZE 1024
+#define RINGSIZE 4
+
+char buf[BUFSIZE];
+
+/* a completion ring with room for RINGSIZE completions */
+volatile struct {
+  int head;
+  int tail;
+  struct aiocompletion entries[RINGSIZE];
+} ring;
+
+/* wait for the completion of request id, which must be the next one */
+int aiowait(int id)
+{
+  int result;
+
+  if (id==-1) {
+    printf("Unable to queue request\n");
+    exit(1);
+  }
+
+  /* the kernel's I/O thread runs when the timer preempts us */
+  while (ring.head==ring.tail)
+    ;
+
+  if (ring.entries[ring.head%RINGSIZE].id!=id) {
+    printf("Request %d completed out of order\n", id);
+    exit(1);
+  }
+
+  result = ring.entries[ring.head%RINGSIZE].result;
+  ring.head++;
+
+  return result;
+}
+
+int main(int argc, char** argv)
+{
+  int src, dst, amount, writeId, readId;
+
+  if (argc!=3) {
+    printf("Usage: aiocp <src> <dst>\n");
+    return 1;
+  }
+
+  src = open(argv[1]);
+  if (src==-1) {
+    printf("Unable to open %s\n", argv[1]);
+    return 1;
+  }
+
+  creat(argv[2]);
+  dst = open(argv[2]);
+  if (dst==-1) {
+    printf("Unable to create %s\n", argv[2]);
+    return 1;
+  }
+
+  if (aiosetup((struct aioring *) &ring, RINGSIZE)==-1) {
+    printf("Unable to set up the completion ring\n");
+    return 1;
+  }
+
+  amount = aiowait(aioread(src, buf, BUFSIZE));
+  while (amount>0) {
+    /* aiowrite() copies the buffer, so the next read can reuse it */
+    writeId = aiowrite(dst, buf, amount);
+    readId = aioread(src, buf, BUFSIZE);
+
+    if (aiowait(writeId)!=amount) {
+      printf("Unable to write %s\n", argv[2]);
+      return 1;
+    }
+    amount = aiowait(readId);
+  }
+
+  close(src);
+  close(dst);
+
+  return 0;
+}
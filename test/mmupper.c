@@ -0,0 +1,58 @@
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+/*
+ * Where to map the file: page 192 of the 256 page address space, above any
+ * test program, leaving room for a file of up to 64 pages.
+ */
+#define MAPADDR ((char *) 0x30000)
+
+#define BUFSIZE 1024
+
+char buf[BUFSIZE];
+
+int main(int argc, char** argv)
+{
+  int fd, length, i, amount;
+
+  if (argc!=2) {
+    printf("Usage: mmupper <file>\n");
+    return 1;
+  }
+
+  fd = open(argv[1]);
+  if (fd==-1) {
+    printf("Unable to open %s\n", argv[1]);
+    return 1;
+  }
+
+  length = mmap(fd, MAPADDR);
+  if (length==-1) {
+    printf("Unable to map %s\n", argv[1]);
+    return 1;
+  }
+
+  /* the file can't be read or written while it is mapped */
+  printf("read while mapped: %d\n", read(fd, buf, 1));
+
+  /* change the file through the map */
+  for (i=0; i<length; i++) {
+    if (MAPADDR[i]>='a' && MAPADDR[i]<='z')
+      MAPADDR[i] += 'A' - 'a';
+  }
+
+  printf("munmap: %d\n", munmap(MAPADDR));
+  printf("munmap again: %d\n", munmap(MAPADDR));
+
+  /* the changes were written back to the file */
+  close(fd);
+  fd = open(argv[1]);
+  while ((amount = read(fd, buf, BUFSIZE))>0) {
+    write(1, buf, amount);
+  }
+
+  close(fd);
+
+  return 0;
+}
@@ -65,5 +65,11 @@ name:				; \
 	SYSCALLSTUB(close, syscallClose)
 	SYSCALLSTUB(unlink, syscallUnlink)
 	SYSCALLSTUB(mmap, syscallMmap)
+	SYSCALLSTUB(munmap, syscallMunmap)
 	SYSCALLSTUB(connect, syscallConnect)
 	SYSCALLSTUB(accept, syscallAccept)
+	SYSCALLSTUB(readv, syscallReadv)
+	SYSCALLSTUB(writev, syscallWritev)
+	SYSCALLSTUB(aiosetup, syscallAioSetup)
+	SYSCALLSTUB(aioread, syscallAioRead)
+	SYSCALLSTUB(aiowrite, syscallAioWrite)
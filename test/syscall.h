@@ -25,6 +25,12 @@
 #define syscallMmap		10
 #define syscallConnect		11
 #define syscallAccept		12
+#define syscallReadv		13
+#define syscallWritev		14
+#define syscallAioSetup		15
+#define syscallAioRead		16
+#define syscallAioWrite		17
+#define syscallMunmap		18
 
 /* Don't want the assembler to see C code, but start.s includes syscall.h. */
 #ifndef START_S
@@ -109,7 +115,8 @@ int exec(char *file, int argc, char *argv[]);
  */
 int join(int processID, int *status);
 
-/* FILE MANAGEMENT SYSCALLS: creat, open, read, write, close, unlink
+/* FILE MANAGEMENT SYSCALLS: creat, open, read, write, readv, writev, close,
+ * unlink
  *
  * A file descriptor is a small, non-negative integer that refers to a file on
  * disk or to a stream (such as console input, console output, and network
@@ -181,6 +188,90 @@ int read(int fileDescriptor, void *buffer, int count);
  */
 int write(int fileDescriptor, void *buffer, int count);
 
+/**
+ * One buffer of a readv() or writev().
+ */
+struct iovec {
+    void *base;
+    int length;
+};
+
+/**
+ * Like read(), but fills the iovcnt buffers described by iov in order, as if
+ * they were one buffer. Stops after the first buffer that is not filled
+ * completely. At most 64 buffers, of at most 65536 bytes in all, may be
+ * given. The file is read once for the whole call.
+ *
+ * Returns the total number of bytes read, or -1 if an error occurred before
+ * any bytes were read.
+ */
+int readv(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/**
+ * Like write(), but writes the iovcnt buffers described by iov in order, as
+ * if they were one buffer. At most 64 buffers, of at most 65536 bytes in
+ * all, may be given. The file is written once for the whole call.
+ *
+ * Returns the total number of bytes written, or -1 if an error occurred
+ * before any bytes were written.
+ */
+int writev(int fileDescriptor, struct iovec *iov, int iovcnt);
+
+/* ASYNCHRONOUS I/O SYSCALLS: aiosetup, aioread, aiowrite
+ *
+ * Requests are serviced in the order they are submitted by a kernel thread
+ * belonging to the process, so the process can keep running while a request
+ * waits for the disk. Results are posted to a completion ring in the
+ * process's memory, which the process can check without a syscall.
+ */
+
+/**
+ * One completed request: the id returned by aioread() or aiowrite(), and what
+ * read() or write() would have returned.
+ */
+struct aiocompletion {
+    int id;
+    int result;
+};
+
+/**
+ * A completion ring of size entries. The kernel posts completion number n to
+ * entries[n % size] and then advances tail past it. The process consumes
+ * entries from head to tail and advances head.
+ */
+struct aioring {
+    int head;
+    int tail;
+    struct aiocompletion entries[1];
+};
+
+/**
+ * Register a completion ring with room for size completions (at most 256),
+ * and reset its head and tail to zero. May only be called once.
+ *
+ * Returns 0 on success, or -1 if an error occurred.
+ */
+int aiosetup(struct aioring *ring, int size);
+
+/**
+ * Queue a read() of count bytes into buffer, where count is at most 65536.
+ * The buffer must not be touched until the request completes. Fails if the
+ * ring could fill up before the process consumes the completion.
+ *
+ * Returns the request's id, or -1 if an error occurred.
+ */
+int aioread(int fileDescriptor, void *buffer, int count);
+
+/**
+ * Queue a write() of count bytes from buffer, where count is at most 65536.
+ * The data is copied before aiowrite() returns, so the buffer may be reused
+ * at once. Fails if the ring could fill up before the process consumes the
+ * completion.
+ *
+ * Returns the request's id, or -1 if an error occurred.
+ */
+int aiowrite(int fileDescriptor, void *buffer, int count);
+
 /**
  * Close a file descriptor, so that it no longer refers to any file or stream
  * and may be reused.
@@ -216,7 +307,10 @@ int unlink(char *name);
 
 /**
  * Map the file referenced by fileDescriptor into memory at address. The file
- * may be as large as 0x7FFFFFFF bytes.
+ * may be as large as 0x7FFFFFFF bytes. The address must be page-aligned and
+ * past the end of the program, the map must end below 0x80000000, and it
+ * must not overlap another map. The kernel's page table only grows as
+ * pages of the map are touched.
  * 
  * To maintain consistency, further calls to read() and write() on this file
  * descriptor will fail (returning -1) until the file descriptor is closed.
@@ -228,6 +322,15 @@ int unlink(char *name);
  */
 int mmap(int fileDescriptor, char *address);
 
+/**
+ * Remove the map that mmap() created at address, flushing its dirty pages to
+ * disk first. The file descriptor stays open and may be used with read() and
+ * write() again.
+ *
+ * Returns 0 on success, or -1 if no map starts at address.
+ */
+int munmap(char *address);
+
 /**
  * Attempt to initiate a new connection to the specified port on the specified
  * remote host, and return a new file descriptor referring to the connection.
@@ -0,0 +1,62 @@
+#include "syscall.h"
+#include "stdio.h"
+#include "stdlib.h"
+
+#define FILENAME "vecio.txt"
+
+char *parts[] = { "hello, ", "vectored ", "world\n" };
+
+char small[5], medium[10], large[64];
+
+int main(int argc, char** argv)
+{
+  struct iovec iov[3];
+  int fd, i, total, amount;
+
+  fd = creat(FILENAME);
+  if (fd==-1) {
+    printf("Unable to create %s\n", FILENAME);
+    return 1;
+  }
+
+  total = 0;
+  for (i=0; i<3; i++) {
+    iov[i].base = parts[i];
+    iov[i].length = strlen(parts[i]);
+    total += iov[i].length;
+  }
+
+  amount = writev(fd, iov, 3);
+  printf("writev: %d of %d bytes\n", amount, total);
+  close(fd);
+
+  fd = open(FILENAME);
+  if (fd==-1) {
+    printf("Unable to open %s\n", FILENAME);
+    return 1;
+  }
+
+  /* the first two buffers are filled, and the last one gets the rest */
+  iov[0].base = small;
+  iov[0].length = sizeof(small);
+  iov[1].base = medium;
+  iov[1].length = sizeof(medium);
+  iov[2].base = large;
+  iov[2].length = sizeof(large);
+
+  amount = readv(fd, iov, 3);
+  printf("readv: %d of %d bytes\n", amount, total);
+  if (amount!=total)
+    return 1;
+
+  /* echo what was read, one buffer at a time */
+  iov[2].length = amount - sizeof(small) - sizeof(medium);
+  writev(1, iov, 3);
+
+  /* too many buffers */
+  printf("readv with 65 buffers: %d\n", readv(fd, iov, 65));
+
+  close(fd);
+
+  return 0;
+}
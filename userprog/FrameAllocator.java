@@ -0,0 +1,162 @@
+package nachos.userprog;
+
+import nachos.machine.*;
+
+/**
+ * Keeps track of the free frames of physical memory. The free frame numbers
+ * are kept on a stack, so allocating and freeing a frame take constant time
+ * and allocate no memory, and a batch of frames is allocated or freed with
+ * interrupts disabled only once.
+ */
+public class FrameAllocator {
+    /**
+     * Allocate a new frame allocator, with every frame free.
+     *
+     * @param	numFrames	the number of physical pages.
+     */
+    public FrameAllocator(int numFrames) {
+	stack = new int[numFrames];
+	isFree = new boolean[numFrames];
+
+	// hand out the lowest frames first
+	for (int i=0; i<numFrames; i++) {
+	    stack[i] = numFrames-1-i;
+	    isFree[i] = true;
+	}
+	numFree = numFrames;
+    }
+
+    /**
+     * Return the number of free frames.
+     *
+     * @return	the number of free frames.
+     */
+    public int numFree() {
+	return numFree;
+    }
+
+    /**
+     * Allocate a frame.
+     *
+     * @return	the physical page number, or <tt>-1</tt> if no frame is free.
+     */
+    public int allocate() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int ppn = (numFree > 0) ? pop() : -1;
+
+	Machine.interrupt().restore(intStatus);
+	return ppn;
+    }
+
+    /**
+     * Allocate several frames at once. Either all of them are allocated, or
+     * none are.
+     *
+     * @param	count	the number of frames.
+     * @return	the physical page numbers, or <tt>null</tt> if fewer than
+     *		<i>count</i> frames are free.
+     */
+    public int[] allocate(int count) {
+	int[] ppns = new int[count];
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (count > numFree) {
+	    ppns = null;
+	}
+	else {
+	    for (int i=0; i<count; i++)
+		ppns[i] = pop();
+	}
+
+	Machine.interrupt().restore(intStatus);
+	return ppns;
+    }
+
+    /**
+     * Allocate a run of physically contiguous frames that starts at a
+     * multiple of its length. This searches all of memory, so it is only
+     * meant for rare, large allocations such as superpages.
+     *
+     * @param	count	the number of frames.
+     * @return	the first physical page number of the run, or <tt>-1</tt>
+     *		if no aligned run of <i>count</i> free frames exists.
+     */
+    public int allocateContiguous(int count) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	int first = -1;
+	for (int base=0; base+count<=isFree.length && first==-1; base+=count) {
+	    first = base;
+	    for (int ppn=base; ppn<base+count; ppn++) {
+		if (!isFree[ppn]) {
+		    first = -1;
+		    break;
+		}
+	    }
+	}
+
+	if (first != -1) {
+	    for (int ppn=first; ppn<first+count; ppn++)
+		isFree[ppn] = false;
+
+	    // drop the run from the stack, keeping the order of the rest
+	    int kept = 0;
+	    for (int i=0; i<numFree; i++) {
+		if (isFree[stack[i]])
+		    stack[kept++] = stack[i];
+	    }
+	    numFree = kept;
+	}
+
+	Machine.interrupt().restore(intStatus);
+	return first;
+    }
+
+    /**
+     * Free a frame.
+     *
+     * @param	ppn	the physical page number.
+     */
+    public void free(int ppn) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	push(ppn);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Free several frames at once.
+     *
+     * @param	ppns	the physical page numbers.
+     * @param	count	the number of entries of <i>ppns</i> to free.
+     */
+    public void free(int[] ppns, int count) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	for (int i=0; i<count; i++)
+	    push(ppns[i]);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    private int pop() {
+	int ppn = stack[--numFree];
+	isFree[ppn] = false;
+	return ppn;
+    }
+
+    private void push(int ppn) {
+	Lib.assertTrue(ppn >= 0 && ppn < isFree.length && !isFree[ppn]);
+
+	isFree[ppn] = true;
+	stack[numFree++] = ppn;
+    }
+
+    private int[] stack;
+    private int numFree;
+    /** Catches frames that are freed twice. */
+    private boolean[] isFree;
+}
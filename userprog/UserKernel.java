@@ -4,8 +4,6 @@ import nachos.machine.*;
 import nachos.threads.*;
 import nachos.userprog.*;
 
-import java.util.LinkedList;
-
 /**
  * A kernel that can support multiple user processes.
  */
@@ -27,12 +25,9 @@ public class UserKernel extends ThreadedKernel {
 	console = new SynchConsole(Machine.console());
 	
 	processIDSem = new Semaphore(1);
-	freePagesSem = new Semaphore(1);
 
-	//create list of free pages
-	for (int i = 0; i < Machine.processor().getNumPhysPages(); i++) {
-	    freePages.add(i);
-	}
+	frameAllocator =
+	    new FrameAllocator(Machine.processor().getNumPhysPages());
 
 	Machine.processor().setExceptionHandler(new Runnable() {
 		public void run() { exceptionHandler(); }
@@ -125,7 +120,7 @@ public class UserKernel extends ThreadedKernel {
     public static int newProcessID = 0;
 
     public static Semaphore processIDSem;
-    public static Semaphore freePagesSem;
 
-    public static LinkedList<Integer> freePages = new LinkedList<Integer>();;
+    /** Globally accessible reference to the free frames of memory. */
+    public static FrameAllocator frameAllocator;
 }
@@ -32,10 +32,7 @@ public class UserProcess {
         UserKernel.newProcessID++;
 	UserKernel.processIDSem.V();
 
-	int numPhysPages = Machine.processor().getNumPhysPages();
-	pageTable = new TranslationEntry[numPhysPages];
-	for (int i=0; i<numPhysPages; i++)
-	    pageTable[i] = new TranslationEntry(i,i,false,false,false,false);
+	// the page table is sized to the program by loadSections()
 
 	fileTable = new OpenFile[16];
 	fileTable[0] = UserKernel.console.openForReading();
@@ -144,26 +141,8 @@ public class UserProcess {
 				 int length) {
 	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= data.length);
 
-	byte[] memory = Machine.processor().getMemory();
-	
-	// address translation
-	int vpn = vaddr / pageSize;
-	int voffset = vaddr % pageSize;
-	TranslationEntry entry = pageTable[vpn];
-	entry.used = true;
-	int paddr = entry.ppn*pageSize + voffset;
-
-	// if entry is not valid, then don't read
-	if (paddr < 0 || paddr >= memory.length || !entry.valid)
-	    return 0;
-
-	int amount = Math.min(length, memory.length-paddr);
-
-        // copies 'amount' bytes from byte array 'memory' starting at byte 'vaddr'
-        // to byte array 'data' starting 'offset' bytes into 'data'
-	System.arraycopy(memory, paddr, data, offset, amount);
-
-	return amount;
+	return transferVirtualMemory(vaddr, length, false,
+				     new ArrayTransfer(data, offset, false));
     }
 
     /**
@@ -197,22 +176,366 @@ public class UserProcess {
 				  int length) {
 	Lib.assertTrue(offset >= 0 && length >= 0 && offset+length <= data.length);
 
-	byte[] memory = Machine.processor().getMemory();
+	return transferVirtualMemory(vaddr, length, true,
+				     new ArrayTransfer(data, offset, true));
+    }
+
+    /**
+     * Transfer data between virtual memory and somewhere else a page at a
+     * time, stopping at the first page that cannot be accessed. Pages that
+     * are contiguous in physical memory are transferred together.
+     *
+     * @param	vaddr	the first byte of virtual memory to transfer.
+     * @param	length	the number of bytes to transfer.
+     * @param	writing	<tt>true</tt> if virtual memory is being written.
+     * @param	transfer	moves each physically contiguous run.
+     * @return	the number of bytes successfully transferred, or <tt>-1</tt>
+     *		if <i>transfer</i> failed before moving anything.
+     */
+    private int transferVirtualMemory(int vaddr, int length, boolean writing,
+				      Transfer transfer) {
+	Processor processor = Machine.processor();
+
+	int amount = 0;
+	int runStart = 0, runLength = 0;
+	int runFirstVPN = 0, runPages = 0;
+	
+	while (amount < length) {
+	    int paddr = translateForTransfer(vaddr+amount, writing);
+	    if (paddr == -1)
+		break;
+
+	    int vpn = (vaddr+amount) / pageSize;
+	    int chunk = Math.min(length-amount, pageSize - paddr%pageSize);
+
+	    // move the current run if this page doesn't extend it
+	    if (runLength > 0 && paddr != runStart+runLength) {
+		int moved = moveRun(transfer, processor, runStart,
+				    amount-runLength, runLength,
+				    runFirstVPN, runPages);
+		if (moved != runLength) {
+		    unpinPage(vpn);
+		    return partialTransfer(amount-runLength, moved);
+		}
+
+		runLength = 0;
+		runPages = 0;
+	    }
+
+	    if (runLength == 0) {
+		runStart = paddr;
+		runFirstVPN = vpn;
+	    }
+
+	    runLength += chunk;
+	    runPages++;
+	    amount += chunk;
+	}
+
+	if (runLength > 0) {
+	    int moved = moveRun(transfer, processor, runStart, amount-runLength,
+				runLength, runFirstVPN, runPages);
+	    if (moved != runLength)
+		return partialTransfer(amount-runLength, moved);
+	}
+
+	return amount;
+    }
+
+    /**
+     * Move one run of a transfer, and unpin its pages once it is done.
+     */
+    private int moveRun(Transfer transfer, Processor processor, int paddr,
+			int position, int length, int firstVPN, int numRunPages) {
+	int moved = transfer.transfer(processor, paddr, position, length);
+
+	for (int i=0; i<numRunPages; i++)
+	    unpinPage(firstVPN+i);
+
+	return moved;
+    }
+
+    private static int partialTransfer(int done, int moved) {
+	if (moved < 0)
+	    return (done == 0) ? -1 : done;
+
+	return done + moved;
+    }
+
+    /**
+     * Moves one physically contiguous run of a
+     * <tt>transferVirtualMemory()</tt>.
+     */
+    private interface Transfer {
+	/**
+	 * @param	processor	the processor whose memory to access.
+	 * @param	paddr		the first physical address of the run.
+	 * @param	position	the offset of the run from the start of
+	 *				the transfer.
+	 * @param	length		the length of the run.
+	 * @return	the number of bytes moved, or <tt>-1</tt> on error.
+	 */
+	int transfer(Processor processor, int paddr, int position,
+		     int length);
+    }
+
+    private static class ArrayTransfer implements Transfer {
+	ArrayTransfer(byte[] data, int offset, boolean toMemory) {
+	    this.data = data;
+	    this.offset = offset;
+	    this.toMemory = toMemory;
+	}
+
+	public int transfer(Processor processor, int paddr, int position,
+			    int length) {
+	    if (toMemory)
+		processor.writeMemory(paddr, data, offset+position, length);
+	    else
+		processor.readMemory(paddr, data, offset+position, length);
+
+	    return length;
+	}
+
+	private byte[] data;
+	private int offset;
+	private boolean toMemory;
+    }
+
+    private static class FileTransfer implements Transfer {
+	FileTransfer(OpenFile file, boolean toMemory) {
+	    this.file = file;
+	    this.toMemory = toMemory;
+	}
+
+	public int transfer(Processor processor, int paddr, int position,
+			    int length) {
+	    // move data straight between the file and main memory if we can
+	    if (!processor.isMemoryOffHeap()) {
+		byte[] memory = processor.getMemory(paddr, length);
+
+		if (!toMemory)
+		    return file.write(memory, paddr, length);
+
+		// the read may block, so forget decoded instructions after it
+		int amount = file.read(memory, paddr, length);
+		processor.memoryWritten(paddr, length);
+		return amount;
+	    }
+
+	    byte[] buffer = new byte[length];
+
+	    if (!toMemory) {
+		processor.readMemory(paddr, buffer, 0, length);
+		return file.write(buffer, 0, length);
+	    }
+
+	    int amount = file.read(buffer, 0, length);
+	    if (amount > 0)
+		processor.writeMemory(paddr, buffer, 0, amount);
+
+	    return amount;
+	}
+
+	private OpenFile file;
+	private boolean toMemory;
+    }
+
+    /**
+     * Transfer data between a file and this process's virtual memory. If
+     * the buffer is resident in one physically contiguous run, the data
+     * moves straight between the file and main memory. Otherwise it is
+     * copied through a kernel buffer, so that the file is accessed once per
+     * <tt>maxFileBuffer</tt> bytes rather than once per run.
+     *
+     * @param	file	the file to transfer to or from.
+     * @param	vaddr	the first byte of virtual memory to transfer.
+     * @param	length	the number of bytes to transfer.
+     * @param	reading	<tt>true</tt> if the file is being read into memory.
+     * @return	the number of bytes transferred, or <tt>-1</tt> if nothing
+     *		could be transferred.
+     */
+    private int transferFile(OpenFile file, int vaddr, int length,
+			     boolean reading) {
+	if (isContiguous(vaddr, length))
+	    return transferVirtualMemory(vaddr, length, reading,
+					 new FileTransfer(file, reading));
+
+	byte[] buffer = new byte[Math.min(length, maxFileBuffer)];
+	int total = 0;
+
+	while (total < length) {
+	    int chunk = Math.min(length-total, buffer.length);
+	    int amount;
+
+	    if (reading) {
+		// don't take bytes from the file that can't be delivered
+		chunk = writableLength(vaddr+total, chunk);
+		if (chunk == 0)
+		    return (total == 0) ? -1 : total;
+
+		int read = file.read(buffer, 0, chunk);
+		if (read <= 0)
+		    return (read < 0 && total == 0) ? -1 : total;
+
+		amount = writeVirtualMemory(vaddr+total, buffer, 0, read);
+	    }
+	    else {
+		int copied = readVirtualMemory(vaddr+total, buffer, 0, chunk);
+		if (copied == 0)
+		    return (total == 0) ? -1 : total;
+
+		amount = file.write(buffer, 0, copied);
+	    }
+
+	    if (amount <= 0)
+		return (total == 0) ? -1 : total;
+
+	    total += amount;
+	    if (amount < chunk)
+		break;
+	}
+
+	return total;
+    }
+
+    /**
+     * Test whether a range of virtual memory is resident in one physically
+     * contiguous run of frames. The pages are not pinned, so this is only a
+     * hint; <tt>transferVirtualMemory()</tt> still checks each page.
+     */
+    private boolean isContiguous(int vaddr, int length) {
+	if (length == 0)
+	    return true;
+	if (vaddr < 0)
+	    return false;
+
+	int firstVPN = vaddr / pageSize;
+	int lastVPN = (int) (((long) vaddr + length - 1) / pageSize);
+	TranslationEntry first = getPageTableEntry(firstVPN);
+	if (first == null || !first.valid)
+	    return false;
+
+	for (int vpn=firstVPN+1; vpn<=lastVPN; vpn++) {
+	    TranslationEntry entry = getPageTableEntry(vpn);
+	    if (entry == null || !entry.valid ||
+		entry.ppn != first.ppn + (vpn-firstVPN))
+		return false;
+	}
+
+	return true;
+    }
+
+    /** The most that <tt>transferFile()</tt> copies at once. */
+    private static final int maxFileBuffer = 64*Processor.pageSize;
+
+    /**
+     * Called before a system call writes to a file or clears it. Does
+     * nothing here; a kernel that shares the contents of files between
+     * processes overrides it to stop sharing what is about to change.
+     *
+     * @param	file	the file about to change.
+     */
+    protected void fileChanged(OpenFile file) {
+    }
+
+    /**
+     * Return the page table entry of a virtual page, or <tt>null</tt> if the
+     * page has none. Processes that keep their page table in another form
+     * override this.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the page's entry, or <tt>null</tt>.
+     */
+    protected TranslationEntry getPageTableEntry(int vpn) {
+	if (vpn < 0 || vpn >= pageTable.length)
+	    return null;
+
+	return pageTable[vpn];
+    }
+
+    /**
+     * Make a page resident and keep it in its frame until
+     * <tt>unpinPage()</tt>, so the kernel can access it. Processes that page
+     * on demand override this.
+     *
+     * @param	vpn	the virtual page to pin.
+     * @return	<tt>true</tt> if the page is now valid and pinned.
+     */
+    protected boolean pinPage(int vpn) {
+	TranslationEntry entry = getPageTableEntry(vpn);
+	return entry != null && entry.valid;
+    }
+
+    /**
+     * Release a page pinned by <tt>pinPage()</tt>.
+     *
+     * @param	vpn	the virtual page to unpin.
+     */
+    protected void unpinPage(int vpn) {
+    }
+
+    /**
+     * Translate a virtual address for <tt>transferVirtualMemory()</tt>, pin
+     * its page, and mark it used, and dirty if writing.
+     *
+     * @return	the physical address, or <tt>-1</tt> if the page cannot be
+     *		accessed.
+     */
+    private int translateForTransfer(int vaddr, boolean writing) {
+	if (vaddr < 0)
+	    return -1;
 	
-	// address translation
 	int vpn = vaddr / pageSize;
-	int voffset = vaddr % pageSize;
-	TranslationEntry entry = pageTable[vpn];
+	if (!pinPage(vpn))
+	    return -1;
+
+	TranslationEntry entry = getPageTableEntry(vpn);
+	if ((writing && entry.readOnly) ||
+	    entry.ppn < 0 || entry.ppn >= Machine.processor().getNumPhysPages()) {
+	    unpinPage(vpn);
+	    return -1;
+	}
+
 	entry.used = true;
-	int paddr = entry.ppn*pageSize + voffset;
+	if (writing)
+	    entry.dirty = true;
+
+	return entry.ppn*pageSize + vaddr%pageSize;
+    }
+
+    /**
+     * Return how many bytes at the start of a range of virtual memory a
+     * system call could write. A read limits itself to this before taking
+     * data from a file, so the file's position never moves past bytes that
+     * cannot be delivered. The pages are made resident but not marked used
+     * or dirty.
+     *
+     * @param	vaddr	the first byte of the range.
+     * @param	length	the length of the range.
+     * @return	the length of the writable prefix of the range.
+     */
+    private int writableLength(int vaddr, int length) {
+	int amount = 0;
+
+	while (amount < length) {
+	    int addr = vaddr+amount;
+	    if (addr < 0)
+		break;
+
+	    int vpn = addr / pageSize;
+	    if (!pinPage(vpn))
+		break;
 
-	// can't write it entry is not valid or read only
-	if (paddr < 0 || paddr >= memory.length || !entry.valid || entry.readOnly)
-	    return 0;
+	    TranslationEntry entry = getPageTableEntry(vpn);
+	    boolean writable = !entry.readOnly && entry.ppn >= 0 &&
+		entry.ppn < Machine.processor().getNumPhysPages();
+	    unpinPage(vpn);
 
-	entry.dirty = true;
-	int amount = Math.min(length, memory.length-paddr);
-	System.arraycopy(data, offset, memory, paddr, amount);
+	    if (!writable)
+		break;
+
+	    amount += Math.min(length-amount, pageSize - addr%pageSize);
+	}
 
 	return amount;
     }
@@ -238,6 +561,8 @@ public class UserProcess {
 
 	try {
 	    coff = new Coff(executable);
+	    coffName = name;
+	    coffLength = executable.length();
 	}
 	catch (EOFException e) {
 	    executable.close();
@@ -256,8 +581,6 @@ public class UserProcess {
 	    }
 	    numPages += section.getLength();
 	}
-	// save the number of pages in the code section for later
-	int codeSectionLength = numPages;
 
 	// make sure the argv array will fit in one page
 	byte[][] argv = new byte[args.length][];
@@ -284,16 +607,6 @@ public class UserProcess {
         // of pages needed for this process
 	numPages++;
 
-	// allocate pages for the stack and arguments
-	for (int i = codeSectionLength; i < stackPages + codeSectionLength + 1; i++) {
-	    TranslationEntry entry = pageTable[i];
-	    UserKernel.freePagesSem.P();
-	    int freePageNum = UserKernel.freePages.removeFirst();
-	    UserKernel.freePagesSem.V();
-	    entry.ppn = freePageNum;
-	    entry.valid = true;
-	}
-
 	if (!loadSections())
 	    return false;
 
@@ -326,12 +639,20 @@ public class UserProcess {
      * @return	<tt>true</tt> if the sections were successfully loaded.
      */
     protected boolean loadSections() {
-	if (numPages > Machine.processor().getNumPhysPages() || numPages > UserKernel.freePages.size()) {
+	int[] frames = UserKernel.frameAllocator.allocate(numPages);
+	if (frames == null) {
 	    coff.close();
 	    Lib.debug(dbgProcess, "\tinsufficient physical memory");
 	    return false;
 	}
 
+	// the sections, then the stack and arguments, fill the first numPages,
+	// and the processor faults on pages past the end of the table
+	pageTable = new TranslationEntry[numPages];
+	for (int vpn=0; vpn<numPages; vpn++)
+	    pageTable[vpn] =
+		new TranslationEntry(vpn, frames[vpn], true, false, false, false);
+
 	// load sections
 	for (int s=0; s<coff.getNumSections(); s++) {
 	    CoffSection section = coff.getSection(s);
@@ -339,13 +660,7 @@ public class UserProcess {
 	    Lib.debug(dbgProcess, "\tinitializing " + section.getName()
 		      + " section (" + section.getLength() + " pages)");
 	    for (int i=0; i < section.getLength(); i++) {
-		int vpn = section.getFirstVPN()+i;
-		TranslationEntry entry = pageTable[vpn];
-		UserKernel.freePagesSem.P();
-		int freePageNum = UserKernel.freePages.removeFirst();
-		UserKernel.freePagesSem.V();
-		entry.ppn = freePageNum;
-		entry.valid = true;
+		TranslationEntry entry = pageTable[section.getFirstVPN()+i];
 		entry.readOnly = section.isReadOnly();
 		section.loadPage(i, entry.ppn);
 	    }
@@ -358,14 +673,18 @@ public class UserProcess {
      * Release any resources allocated by <tt>loadSections()</tt>.
      */
     protected void unloadSections() {
+	int[] frames = new int[pageTable.length];
+	int count = 0;
+
 	for (int i = 0; i < pageTable.length; i++) {
 	    TranslationEntry entry = pageTable[i];
 	    if (entry.valid) {
-		UserKernel.freePagesSem.P();
-		UserKernel.freePages.add(entry.ppn);
-		UserKernel.freePagesSem.V();
+		frames[count++] = entry.ppn;
+		entry.valid = false;
 	    }
 	}
+
+	UserKernel.frameAllocator.free(frames, count);
     }    
 
     /**
@@ -401,7 +720,8 @@ public class UserProcess {
 		fileTable[i].close();
 	}
 
-	Machine.halt();
+	// let the kernel clean up before the machine halts
+	Kernel.kernel.terminate();
         Lib.assertNotReached("Machine.halt() did not halt machine!");
 	return 0;
     }
@@ -424,7 +744,7 @@ public class UserProcess {
             // read string argument at pointer from above
             args[i] = readVirtualMemoryString(Lib.bytesToInt(argPoint,0), 256);
         }
-        UserProcess child = new UserProcess();
+        UserProcess child = newUserProcess();
 	childList.add(child);
         String processName = readVirtualMemoryString(name,256);
         boolean ret = child.execute(processName, args);
@@ -442,6 +762,7 @@ public class UserProcess {
         /* To Do: clear file table 
            store "exit" as this processes exit status
            call V() on this processes join semaphore in case anyone is waiting */
+	stopAioWorker();
         unloadSections();
 	for (int i = 2; i < fileTable.length; i++) {
 	    if (fileTable[i] != null) {
@@ -452,7 +773,7 @@ public class UserProcess {
 	joinSem.V();
         // Done 
         if (processID==0)
-            Machine.halt();
+            Kernel.kernel.terminate();
         KThread.finish();
         return exit;
     }
@@ -484,6 +805,14 @@ public class UserProcess {
 	//System.out.println("CREATE: " + name);
 	String filename = readVirtualMemoryString(name,256);
 	// catch -1? here
+
+	// only a file that already exists changes when it is cleared
+	OpenFile existing = Machine.stubFileSystem().open(filename, false);
+	if (existing != null) {
+	    fileChanged(existing);
+	    existing.close();
+	}
+
 	OpenFile theFile = Machine.stubFileSystem().open(filename, true);
 	if (theFile != null) {
 	    for (int i = 2; i < fileTable.length; i++) {
@@ -537,40 +866,268 @@ public class UserProcess {
 
     /**
      * Handle the read() system call.
-     * Reads file into buffer.
+     * Reads file into buffer, directly in physical memory if it can.
      * Returns size of what was read.
      */
     private int handleRead(int fileDescriptor, int buffer, int size){
 	OpenFile file = fileTable[fileDescriptor];
         if (file == null) return -1;
 
-        byte[] buff = new byte[size];
-        int sizeRead; 
-        sizeRead = file.read(buff, 0, size);
+	if (size < 0) return -1;
 
-        writeVirtualMemory(buffer, buff);
-
-        return sizeRead;
+	return transferFile(file, buffer, size, true);
     }
 
     /**
      * Handle the write() system call.
-     * Reads file from buffer.
-     * Writes it through a new buffer to the new file.
+     * Writes the buffer to the file, directly from physical memory if it
+     * can.
      * Returns the size of what was written.
      */
     private int handleWrite(int fileDescriptor, int buffer, int size){
 	OpenFile file = fileTable[fileDescriptor];
         if (file == null) return -1;
 
-        byte[] buff = new byte[size];
-        readVirtualMemory(buffer, buff);
-        int sizeWritten;
-        sizeWritten = file.write(buff, 0, size);
-        return sizeWritten;
+	if (size < 0) return -1;
+
+	fileChanged(file);
+
+	return transferFile(file, buffer, size, false);
+    }
+
+    /**
+     * Handle the readv() and writev() system calls. The buffers of the
+     * iovec array are gathered into one kernel buffer, so the file is
+     * accessed once for the whole call. A read fills the buffers in turn,
+     * and stops early at the first one that is not filled completely. It
+     * only takes from the file what the buffers up to the first one that
+     * cannot be written will hold.
+     * Returns the total size transferred.
+     */
+    private int handleVectored(int fileDescriptor, int iov, int iovcnt,
+			       boolean reading) {
+	if (fileDescriptor < 0 || fileDescriptor >= fileTable.length)
+	    return -1;
+	OpenFile file = fileTable[fileDescriptor];
+        if (file == null) return -1;
+
+	if (iovcnt < 0 || iovcnt > maxIovecs) return -1;
+
+	// copy in the whole iovec array at once
+	byte[] vectors = new byte[iovcnt*8];
+	if (readVirtualMemory(iov, vectors) != vectors.length)
+	    return -1;
+
+	int size = 0;
+	for (int i=0; i<iovcnt; i++) {
+	    int length = Lib.bytesToInt(vectors, i*8+4);
+	    if (length < 0 || length > maxFileBuffer - size)
+		return -1;
+
+	    size += length;
+	}
+
+	byte[] data = new byte[size];
+	
+	if (reading) {
+	    // take no more from the file than the buffers can hold
+	    int writable = 0;
+	    for (int i=0; i<iovcnt; i++) {
+		int base = Lib.bytesToInt(vectors, i*8);
+		int length = Lib.bytesToInt(vectors, i*8+4);
+
+		int prefix = writableLength(base, length);
+		writable += prefix;
+		if (prefix < length)
+		    break;
+	    }
+
+	    if (writable == 0)
+		return (size == 0) ? 0 : -1;
+
+	    int amount = file.read(data, 0, writable);
+	    if (amount <= 0)
+		return amount;
+
+	    int total = 0;
+	    for (int i=0; i<iovcnt && total<amount; i++) {
+		int base = Lib.bytesToInt(vectors, i*8);
+		int length = Math.min(Lib.bytesToInt(vectors, i*8+4),
+				      amount-total);
+
+		int copied = writeVirtualMemory(base, data, total, length);
+		total += copied;
+		if (copied < length)
+		    return (total == 0) ? -1 : total;
+	    }
+
+	    return total;
+	}
+
+	int total = 0;
+	for (int i=0; i<iovcnt; i++) {
+	    int base = Lib.bytesToInt(vectors, i*8);
+	    int length = Lib.bytesToInt(vectors, i*8+4);
+
+	    int copied = readVirtualMemory(base, data, total, length);
+	    total += copied;
+	    if (copied < length)
+		break;
+	}
+
+	if (total == 0)
+	    return (size == 0) ? 0 : -1;
+
+	fileChanged(file);
+
+	return file.write(data, 0, total);
+    }
+
+    /** The most buffers a single readv() or writev() may transfer. */
+    private static final int maxIovecs = 64;
+
+    /**
+     * Handle the aiosetup() system call.
+     * Registers the completion ring and starts this process's I/O worker.
+     * Returns 0 on success.
+     */
+    private int handleAioSetup(int ring, int size) {
+	if (aioWorker != null || size <= 0 || size > maxAioRing)
+	    return -1;
+
+	// the ring starts out empty
+	byte[] header = new byte[8];
+	if (writeVirtualMemory(ring, header) != header.length)
+	    return -1;
+
+	aioRing = ring;
+	aioRingSize = size;
+	aioQueue = new SynchList();
+
+	aioWorker = new KThread(new Runnable() {
+		public void run() { aioWork(); }
+	    });
+	aioWorker.setName("aio " + processID);
+	aioWorker.fork();
+
+	return 0;
+    }
+
+    /**
+     * Handle the aioread() and aiowrite() system calls.
+     * Queues the request for the I/O worker. A write's data is copied
+     * before the call returns, so the buffer may be reused at once. The
+     * size is limited to <tt>maxFileBuffer</tt>, since the data is held in
+     * a kernel buffer.
+     * Returns the request's id.
+     */
+    private int handleAioSubmit(int fileDescriptor, int buffer, int size,
+				boolean reading) {
+	if (aioWorker == null)
+	    return -1;
+	if (fileDescriptor < 0 || fileDescriptor >= fileTable.length)
+	    return -1;
+	OpenFile file = fileTable[fileDescriptor];
+        if (file == null) return -1;
+
+	// the data is held in a kernel buffer until the request completes
+	if (size < 0 || size > maxFileBuffer) return -1;
+
+	// make sure the completion will fit in the ring
+	byte[] head = new byte[4];
+	if (readVirtualMemory(aioRing, head) != head.length)
+	    return -1;
+	if (aioTail + aioInFlight - Lib.bytesToInt(head, 0) >= aioRingSize)
+	    return -1;
+
+	AioRequest request = new AioRequest();
+	request.id = aioNextId++;
+	request.file = file;
+	request.buffer = buffer;
+	request.reading = reading;
+	request.data = new byte[size];
+
+	if (!reading &&
+	    readVirtualMemory(buffer, request.data) != request.data.length)
+	    return -1;
+
+	if (!reading)
+	    fileChanged(file);
+
+	aioInFlight++;
+	aioQueue.add(request);
+
+	return request.id;
+    }
+
+    /**
+     * The body of the I/O worker. Services requests in the order they were
+     * submitted, so requests on the same file see its position advance in
+     * order, and posts each result to the completion ring.
+     */
+    private void aioWork() {
+	while (true) {
+	    AioRequest request = (AioRequest) aioQueue.removeFirst();
+	    if (request == aioStop)
+		return;
+
+	    int result;
+	    if (request.reading) {
+		int length = writableLength(request.buffer,
+					    request.data.length);
+		if (length == 0 && request.data.length > 0)
+		    result = -1;
+		else
+		    result = request.file.read(request.data, 0, length);
+		if (result > 0)
+		    result = writeVirtualMemory(request.buffer, request.data,
+						0, result);
+	    }
+	    else {
+		result = request.file.write(request.data, 0,
+					    request.data.length);
+	    }
+
+	    // fill in the entry before publishing the new tail
+	    byte[] entry = new byte[8];
+	    Lib.bytesFromInt(entry, 0, request.id);
+	    Lib.bytesFromInt(entry, 4, result);
+	    writeVirtualMemory(aioRing + 8 + 8*(aioTail % aioRingSize), entry);
+
+	    aioTail++;
+	    aioInFlight--;
+
+	    byte[] tail = new byte[4];
+	    Lib.bytesFromInt(tail, 0, aioTail);
+	    writeVirtualMemory(aioRing + 4, tail);
+	}
     }
 
-    private static final int
+    /**
+     * Let the I/O worker finish its outstanding requests and wait for it to
+     * stop. Called before the process's memory is released.
+     */
+    private void stopAioWorker() {
+	if (aioWorker == null)
+	    return;
+
+	aioQueue.add(aioStop);
+	aioWorker.join();
+	aioWorker = null;
+    }
+
+    private static class AioRequest {
+	int id;
+	OpenFile file;
+	int buffer;
+	boolean reading;
+	byte[] data;
+    }
+
+    /** The largest completion ring aiosetup() accepts. */
+    private static final int maxAioRing = 256;
+
+    protected static final int
         syscallHalt = 0,
 	syscallExit = 1,
 	syscallExec = 2,
@@ -580,7 +1137,14 @@ public class UserProcess {
 	syscallRead = 6,
 	syscallWrite = 7,
 	syscallClose = 8,
-	syscallUnlink = 9;
+	syscallUnlink = 9,
+	syscallMmap = 10,
+	syscallReadv = 13,
+	syscallWritev = 14,
+	syscallAioSetup = 15,
+	syscallAioRead = 16,
+	syscallAioWrite = 17,
+	syscallMunmap = 18;
 
     /**
      * Handle a syscall exception. Called by <tt>handleException()</tt>. The
@@ -601,6 +1165,16 @@ public class UserProcess {
      *								</tt></td></tr>
      * <tr><td>8</td><td><tt>int  close(int fd);</tt></td></tr>
      * <tr><td>9</td><td><tt>int  unlink(char *name);</tt></td></tr>
+     * <tr><td>13</td><td><tt>int  readv(int fd, struct iovec *iov,
+     *					int iovcnt);</tt></td></tr>
+     * <tr><td>14</td><td><tt>int  writev(int fd, struct iovec *iov,
+     *					int iovcnt);</tt></td></tr>
+     * <tr><td>15</td><td><tt>int  aiosetup(struct aioring *ring,
+     *					int size);</tt></td></tr>
+     * <tr><td>16</td><td><tt>int  aioread(int fd, char *buffer, int size);
+     *								</tt></td></tr>
+     * <tr><td>17</td><td><tt>int  aiowrite(int fd, char *buffer, int size);
+     *								</tt></td></tr>
      * </table>
      * 
      * @param	syscall	the syscall number.
@@ -630,6 +1204,16 @@ public class UserProcess {
             return handleRead(a0, a1, a2);
         case syscallWrite:
             return handleWrite(a0, a1, a2);
+	case syscallReadv:
+	    return handleVectored(a0, a1, a2, true);
+	case syscallWritev:
+	    return handleVectored(a0, a1, a2, false);
+	case syscallAioSetup:
+	    return handleAioSetup(a0, a1);
+	case syscallAioRead:
+	    return handleAioSubmit(a0, a1, a2, true);
+	case syscallAioWrite:
+	    return handleAioSubmit(a0, a1, a2, false);
 
 	    // To Do: add the rest of your syscall handlers here
 	    // Don't forget, if the code in a given case does not return,
@@ -677,8 +1261,16 @@ public class UserProcess {
 
     /** The program being run by this process. */
     protected Coff coff;
+    /** The name of the file containing the program. */
+    protected String coffName;
+    /** The length of the file containing the program when it was loaded. */
+    protected int coffLength;
 
-    /** This process's page table. */
+    /**
+     * This process's page table, indexed by virtual page number. Use
+     * <tt>getPageTableEntry()</tt> to look up a page, since a subclass may
+     * keep its page table in another form.
+     */
     protected TranslationEntry[] pageTable;
     /** The number of contiguous pages occupied by the program. */
     protected int numPages;
@@ -701,4 +1293,18 @@ public class UserProcess {
 
     /** The file table */
     protected OpenFile[] fileTable;
+
+    /** The user address of the aiosetup() completion ring. */
+    private int aioRing;
+    private int aioRingSize;
+    /** The number of completions posted to the ring so far. */
+    private int aioTail = 0;
+    /** The number of submitted requests not yet posted. */
+    private int aioInFlight = 0;
+    private int aioNextId = 0;
+    private SynchList aioQueue;
+    private KThread aioWorker = null;
+
+    /** Tells the I/O worker to stop. */
+    private static final AioRequest aioStop = new AioRequest();
 }
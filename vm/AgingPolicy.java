@@ -0,0 +1,52 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * An approximation of LRU by aging. Each frame has a counter that is shifted
+ * right, with the page's used bit shifted in at the top, and the page with
+ * the smallest counter is evicted.
+ *
+ * <p>
+ * The counters are aged at each eviction rather than on a timer, so pages
+ * are compared by their use over the last few evictions.
+ */
+public class AgingPolicy extends ReplacementPolicy {
+    /**
+     * Allocate a new aging policy.
+     */
+    public AgingPolicy() {
+    }
+
+    public void initialize(int numFrames) {
+	age = new int[numFrames];
+    }
+
+    public void pageLoaded(int ppn, VMProcess owner, int vpn) {
+	// the fault is the page's first reference
+	age[ppn] = topBit;
+    }
+
+    public int chooseVictim() {
+	int victim = -1;
+
+	for (int ppn=0; ppn<age.length; ppn++) {
+	    if (!resident(ppn))
+		continue;
+
+	    age[ppn] >>>= 1;
+	    if (referenced(ppn))
+		age[ppn] |= topBit;
+
+	    if (!pinned(ppn) && (victim == -1 || age[ppn] < age[victim]))
+		victim = ppn;
+	}
+
+	return victim;
+    }
+
+    private int[] age;
+
+    private static final int ageBits = 8;
+    private static final int topBit = 1 << (ageBits-1);
+}
@@ -0,0 +1,36 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * The clock algorithm. A hand sweeps the frames in order, and evicts the
+ * first page that has not been used since the hand last passed it, giving
+ * each used page a second chance by clearing its used bit.
+ */
+public class ClockPolicy extends ReplacementPolicy {
+    /**
+     * Allocate a new clock policy.
+     */
+    public ClockPolicy() {
+    }
+
+    public void initialize(int numFrames) {
+	this.numFrames = numFrames;
+    }
+
+    public int chooseVictim() {
+	// after one sweep every used bit is clear
+	for (int i=0; i<2*numFrames; i++) {
+	    int ppn = hand;
+	    hand = (hand+1) % numFrames;
+
+	    if (resident(ppn) && !pinned(ppn) && !referenced(ppn))
+		return ppn;
+	}
+
+	return -1;
+    }
+
+    private int numFrames;
+    private int hand = 0;
+}
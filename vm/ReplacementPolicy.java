@@ -0,0 +1,90 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * Chooses the page to evict when <tt>VMKernel</tt> needs a frame and none is
+ * free. The policy is selected by the <tt>VMKernel.replacementPolicy</tt> key
+ * in <tt>nachos.conf</tt>, which names a subclass of this class.
+ *
+ * <p>
+ * All methods are called with <tt>VMKernel.pagingLock</tt> held. A policy
+ * only learns about references to pages through their used bits, which it
+ * samples with <tt>referenced()</tt>.
+ */
+public abstract class ReplacementPolicy {
+    /**
+     * Allocate a new replacement policy.
+     */
+    public ReplacementPolicy() {
+    }
+
+    /**
+     * Prepare to manage the frames of physical memory. Called once, before
+     * any other method.
+     *
+     * @param	numFrames	the number of physical pages.
+     */
+    public void initialize(int numFrames) {
+    }
+
+    /**
+     * Called when a page is brought into a frame, including the frame of a
+     * page that was just evicted.
+     *
+     * @param	ppn	the physical page number.
+     * @param	owner	the process the page belongs to.
+     * @param	vpn	the virtual page number.
+     */
+    public void pageLoaded(int ppn, VMProcess owner, int vpn) {
+    }
+
+    /**
+     * Called when a frame is released because its page is no longer needed,
+     * rather than evicted.
+     *
+     * @param	ppn	the physical page number.
+     */
+    public void frameFreed(int ppn) {
+    }
+
+    /**
+     * Choose a frame to evict. The frame must hold a page, and must not be
+     * pinned.
+     *
+     * @return	the physical page number, or <tt>-1</tt> if every frame is
+     *		pinned.
+     */
+    public abstract int chooseVictim();
+
+    /**
+     * Test whether a frame holds a page.
+     */
+    protected static boolean resident(int ppn) {
+	return VMKernel.isResident(ppn);
+    }
+
+    /**
+     * Test whether a frame holds a page that may not be evicted.
+     */
+    protected static boolean pinned(int ppn) {
+	return VMKernel.isPinned(ppn);
+    }
+
+    /**
+     * Test and clear the used bit of a resident page.
+     *
+     * @return	<tt>true</tt> if the page was referenced since the last call.
+     */
+    protected static boolean referenced(int ppn) {
+	return VMKernel.testAndClearUsed(ppn);
+    }
+
+    /**
+     * Test whether a resident page must be written out before its frame can
+     * be reused.
+     */
+    protected static boolean dirty(int ppn) {
+	return VMKernel.isDirty(ppn);
+    }
+}
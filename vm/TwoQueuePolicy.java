@@ -0,0 +1,151 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * The 2Q algorithm. A page brought in for the first time goes on the FIFO
+ * <i>A1in</i> queue, and is remembered on the <i>A1out</i> queue after it is
+ * evicted from there. A page that faults again while it is remembered has
+ * been used more than once, and goes on the <i>Am</i> queue instead, which is
+ * managed like the clock algorithm as an approximation of LRU. Pages used
+ * once, such as by a scan, therefore do not push out the pages that are used
+ * repeatedly.
+ *
+ * <p>
+ * A page is not evicted from <i>A1in</i> before its process has used it,
+ * unless nothing else can be evicted. Otherwise, when memory is small,
+ * processes waiting for page faults can keep evicting each other's new
+ * pages, and none of them makes progress.
+ */
+public class TwoQueuePolicy extends ReplacementPolicy {
+    /**
+     * Allocate a new 2Q policy.
+     */
+    public TwoQueuePolicy() {
+    }
+
+    public void initialize(int numFrames) {
+	maxIn = Math.max(numFrames/4, 1);
+	maxOut = Math.max(numFrames/2, 1);
+
+	owners = new VMProcess[numFrames];
+	vpns = new int[numFrames];
+	used = new boolean[numFrames];
+    }
+
+    public void pageLoaded(int ppn, VMProcess owner, int vpn) {
+	owners[ppn] = owner;
+	vpns[ppn] = vpn;
+	used[ppn] = false;
+
+	if (forget(owner, vpn))
+	    am.add(ppn);
+	else
+	    in.add(ppn);
+    }
+
+    public void frameFreed(int ppn) {
+	in.remove((Integer) ppn);
+	am.remove((Integer) ppn);
+    }
+
+    public int chooseVictim() {
+	int ppn = -1;
+
+	if (in.size() > maxIn)
+	    ppn = removeFirstUnpinned(true);
+	if (ppn == -1) {
+	    ppn = secondChance();
+	    if (ppn != -1)
+		return ppn;
+
+	    ppn = removeFirstUnpinned(false);
+	    if (ppn == -1)
+		return -1;
+	}
+
+	// only pages evicted from A1in are remembered
+	out.add(new Ghost(owners[ppn], vpns[ppn]));
+	if (out.size() > maxOut)
+	    out.removeFirst();
+
+	return ppn;
+    }
+
+    /**
+     * Remove and return the least recently used unpinned page of <i>Am</i>,
+     * moving each page that was used since it was last examined to the
+     * back of the queue.
+     */
+    private int secondChance() {
+	for (int i=0; i<2*am.size(); i++) {
+	    int ppn = am.removeFirst();
+	    if (!pinned(ppn) && !referenced(ppn))
+		return ppn;
+
+	    am.add(ppn);
+	}
+
+	return -1;
+    }
+
+    /**
+     * Remove and return the first unpinned page of <i>A1in</i>.
+     *
+     * @param	onlyUsed	if <tt>true</tt>, skip pages that have not been
+     *				used since they were brought in.
+     */
+    private int removeFirstUnpinned(boolean onlyUsed) {
+	for (Iterator<Integer> i=in.iterator(); i.hasNext(); ) {
+	    int ppn = i.next();
+	    if (pinned(ppn))
+		continue;
+
+	    if (!used[ppn] && referenced(ppn))
+		used[ppn] = true;
+
+	    if (used[ppn] || !onlyUsed) {
+		i.remove();
+		return ppn;
+	    }
+	}
+
+	return -1;
+    }
+
+    private boolean forget(VMProcess owner, int vpn) {
+	for (Iterator<Ghost> i=out.iterator(); i.hasNext(); ) {
+	    Ghost ghost = i.next();
+	    if (ghost.owner == owner && ghost.vpn == vpn) {
+		i.remove();
+		return true;
+	    }
+	}
+
+	return false;
+    }
+
+    /** A page that was evicted from <i>A1in</i>. */
+    private static class Ghost {
+	Ghost(VMProcess owner, int vpn) {
+	    this.owner = owner;
+	    this.vpn = vpn;
+	}
+
+	VMProcess owner;
+	int vpn;
+    }
+
+    private LinkedList<Integer> in = new LinkedList<Integer>();
+    private LinkedList<Integer> am = new LinkedList<Integer>();
+    private LinkedList<Ghost> out = new LinkedList<Ghost>();
+    private int maxIn, maxOut;
+
+    private VMProcess[] owners;
+    private int[] vpns;
+    /** Whether each page in <i>A1in</i> has been used. */
+    private boolean[] used;
+}
@@ -5,6 +5,11 @@ import nachos.threads.*;
 import nachos.userprog.*;
 import nachos.vm.*;
 
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+
 /**
  * A kernel that can support multiple demand-paging user processes.
  */
@@ -21,11 +26,64 @@ public class VMKernel extends UserKernel {
      */
     public void initialize(String[] args) {
 	super.initialize(args);
+
+	frames = new Frame[Machine.processor().getNumPhysPages()];
+	for (int i=0; i<frames.length; i++)
+	    frames[i] = new Frame();
+
+	pagingLock = new Lock();
+	frameUnpinned = new Condition(pagingLock);
+
+	String policyName = Config.getString("VMKernel.replacementPolicy",
+					     "nachos.vm.ClockPolicy");
+	policy = (ReplacementPolicy) Lib.constructObject(policyName);
+	policy.initialize(frames.length);
+
+	useSuperpages = Config.getBoolean("VMKernel.superpages", false);
+
+	asidOwners = new VMProcess[Processor.numASIDs];
+	for (int asid=1; asid<Processor.numASIDs; asid++)
+	    freeASIDs.add(asid);
+
+	// VMKernel.swapFile names a swap file that is kept until terminate().
+	// By default each run gets a swap file of its own, so that runs from
+	// the same directory do not overwrite or remove each other's, and
+	// removes it as soon as it is open, so that nothing is left behind
+	// if Nachos is killed or fails an assertion
+	String configuredName = Config.getString("VMKernel.swapFile", null);
+	swapFileName = (configuredName != null) ?
+	    configuredName : newSwapFileName();
+
+	swapFile = ThreadedKernel.fileSystem.open(swapFileName, true);
+	Lib.assertTrue(swapFile != null, "could not create swap file");
+
+	if (configuredName == null &&
+	    ThreadedKernel.fileSystem.remove(swapFileName))
+	    swapFileName = null;
+    }
+
+    /**
+     * Pick a swap file name that no file has yet. The name does not come
+     * from <tt>Lib.random()</tt>, since runs with the same seed would then
+     * pick the same one.
+     */
+    private static String newSwapFileName() {
+	Random random = new Random();
+
+	while (true) {
+	    String name = "swap." + Integer.toHexString(random.nextInt());
+
+	    OpenFile file = ThreadedKernel.fileSystem.open(name, false);
+	    if (file == null)
+		return name;
+
+	    file.close();
+	}
     }
 
     /**
      * Test this kernel.
-     */	
+     */
     public void selfTest() {
 	super.selfTest();
     }
@@ -36,16 +94,688 @@ public class VMKernel extends UserKernel {
     public void run() {
 	super.run();
     }
-    
+
     /**
      * Terminate this kernel. Never returns.
      */
     public void terminate() {
+	swapFile.close();
+	if (swapFileName != null)
+	    ThreadedKernel.fileSystem.remove(swapFileName);
+
 	super.terminate();
     }
 
+    /**
+     * Allocate a frame for a page, evicting another page if no frame is
+     * free and <i>evict</i> is <tt>true</tt>. The frame is returned pinned.
+     * The caller must hold <tt>pagingLock</tt>.
+     *
+     * @param	owner	the process the page belongs to.
+     * @param	vpn	the virtual page number.
+     * @param	entry	the page's entry in <i>owner</i>'s page table.
+     * @param	evict	whether another page may be evicted.
+     * @return	the physical page number, or <tt>-1</tt> if no frame can be
+     *		had.
+     */
+    static int allocateFrame(VMProcess owner, int vpn, TranslationEntry entry,
+			     boolean evict) {
+	Lib.assertTrue(pagingLock.isHeldByCurrentThread());
+
+	int ppn = frameAllocator.allocate();
+	if (ppn == -1) {
+	    if (!evict)
+		return -1;
+
+	    ppn = policy.chooseVictim();
+	    if (ppn == -1)
+		return -1;
+
+	    Frame victim = frames[ppn];
+	    Lib.assertTrue(victim.owner != null && victim.pinCount == 0);
+	    Lib.debug(dbgVM, "evicting vpn " + victim.vpn + " from ppn " + ppn);
+
+	    // the TLB may hold a newer dirty bit
+	    flushTLBFrame(ppn);
+
+	    // keep the frame while the victim is written out
+	    victim.pinCount++;
+	    victim.owner.evictPage(victim.vpn);
+	    if (victim.sharedKey != null) {
+		for (Sharer sharer : victim.sharers)
+		    sharer.entry.valid = false;
+		unshareFrame(victim);
+	    }
+	    victim.pinCount--;
+	}
+
+	Frame frame = frames[ppn];
+	frame.owner = owner;
+	frame.vpn = vpn;
+	frame.entry = entry;
+	frame.pinCount = 1;
+
+	policy.pageLoaded(ppn, owner, vpn);
+
+	return ppn;
+    }
+
+    /**
+     * Release a frame that is no longer in use. The frame must not be
+     * pinned. The caller must hold <tt>pagingLock</tt>.
+     *
+     * @param	ppn	the physical page number.
+     */
+    static void freeFrame(int ppn) {
+	Frame frame = frames[ppn];
+	Lib.assertTrue(frame.pinCount == 0, "freeing a pinned frame");
+
+	flushTLBFrame(ppn);
+	policy.frameFreed(ppn);
+
+	if (frame.sharedKey != null)
+	    unshareFrame(frame);
+	frame.owner = null;
+	frame.entry = null;
+
+	frameAllocator.free(ppn);
+    }
+
+    /**
+     * Release a process's use of a frame. A frame shared by several
+     * processes is freed when the last of them releases it. The caller must
+     * hold <tt>pagingLock</tt>.
+     *
+     * @param	ppn	the physical page number.
+     * @param	entry	the page table entry of the releasing process.
+     */
+    static void releaseFrame(int ppn, TranslationEntry entry) {
+	Frame frame = frames[ppn];
+
+	if (frame.sharers == null || frame.sharers.isEmpty()) {
+	    freeFrame(ppn);
+	    return;
+	}
+
+	// the releasing process's TLB entries go away with it
+	flushTLBFrame(ppn);
+
+	if (frame.entry == entry) {
+	    Sharer next = frame.sharers.removeFirst();
+	    frame.owner = next.owner;
+	    frame.entry = next.entry;
+	    return;
+	}
+
+	for (Iterator<Sharer> i=frame.sharers.iterator(); i.hasNext(); ) {
+	    if (i.next().entry == entry) {
+		i.remove();
+		return;
+	    }
+	}
+
+	Lib.assertNotReached("frame not mapped by releasing process");
+    }
+
+    /**
+     * Make a frame that was just loaded with a read-only page of an
+     * executable available to other processes running the same executable.
+     * The caller must hold <tt>pagingLock</tt>.
+     *
+     * @param	ppn	the physical page number.
+     * @param	key	identifies the executable and the page.
+     */
+    static void shareFrame(int ppn, String key) {
+	Frame frame = frames[ppn];
+	Lib.assertTrue(frame.sharedKey == null);
+
+	frame.sharedKey = key;
+	frame.sharers = new LinkedList<Sharer>();
+	sharedFrames.put(key, ppn);
+    }
+
+    /**
+     * Map a shared frame into another process. The frame is returned
+     * pinned. The caller must hold <tt>pagingLock</tt>.
+     *
+     * @param	key	the key the frame was shared with.
+     * @param	owner	the process mapping the frame.
+     * @param	entry	the page's entry in <i>owner</i>'s page table.
+     * @return	the physical page number, or <tt>-1</tt> if no frame holds
+     *		the page.
+     */
+    static int mapSharedFrame(String key, VMProcess owner,
+			      TranslationEntry entry) {
+	Integer ppn = sharedFrames.get(key);
+	if (ppn == null)
+	    return -1;
+
+	Frame frame = frames[ppn];
+	frame.sharers.add(new Sharer(owner, entry));
+	frame.pinCount++;
+
+	return ppn;
+    }
+
+    /**
+     * Return a string that identifies the contents of an executable in the
+     * keys of its shared frames. It includes the file's length, to catch a
+     * file replaced outside of Nachos, and how many times a process has
+     * changed the file since it was first loaded.
+     *
+     * @param	name	the name of the executable.
+     * @param	length	the length of the executable.
+     * @return	the identity of the executable's contents.
+     */
+    static String fileIdentity(String name, int length) {
+	Integer generation = fileGenerations.get(name);
+	if (generation == null) {
+	    generation = 0;
+	    fileGenerations.put(name, generation);
+	}
+
+	return name + ":" + length + ":" + generation;
+    }
+
+    /**
+     * Note that a file is about to change. If it is an executable, processes
+     * that load it afterwards no longer share frames with processes that
+     * loaded it before; the old frames are freed as usual when those
+     * processes release them.
+     *
+     * @param	name	the name of the file.
+     */
+    static void fileChanged(String name) {
+	Integer generation = fileGenerations.get(name);
+	if (generation != null)
+	    fileGenerations.put(name, generation+1);
+    }
+
+    private static void unshareFrame(Frame frame) {
+	sharedFrames.remove(frame.sharedKey);
+	frame.sharedKey = null;
+	frame.sharers = null;
+    }
+
+    /**
+     * Keep a frame from being evicted. The caller must hold
+     * <tt>pagingLock</tt>.
+     */
+    static void pinFrame(int ppn) {
+	frames[ppn].pinCount++;
+    }
+
+    /**
+     * Undo one <tt>pinFrame()</tt>. The caller must hold
+     * <tt>pagingLock</tt>.
+     */
+    static void unpinFrame(int ppn) {
+	Lib.assertTrue(frames[ppn].pinCount > 0);
+	if (--frames[ppn].pinCount == 0)
+	    frameUnpinned.wakeAll();
+    }
+
+    /**
+     * Wait until some frame is unpinned. The caller must hold
+     * <tt>pagingLock</tt>, which is released while waiting.
+     */
+    static void waitForUnpin() {
+	frameUnpinned.sleep();
+    }
+
+    /**
+     * Test whether a frame holds a page.
+     */
+    static boolean isResident(int ppn) {
+	return frames[ppn].owner != null;
+    }
+
+    /**
+     * Test whether a frame holds a page that may not be evicted.
+     */
+    static boolean isPinned(int ppn) {
+	return frames[ppn].pinCount > 0;
+    }
+
+    /**
+     * Test and clear the used bit of the page in a frame.
+     *
+     * @param	ppn	the physical page number of a resident page.
+     * @return	<tt>true</tt> if the page was used since the last call.
+     */
+    static boolean testAndClearUsed(int ppn) {
+	syncTLBFrame(ppn);
+
+	Frame frame = frames[ppn];
+	boolean used = frame.entry.used;
+	frame.entry.used = false;
+
+	if (frame.sharers != null) {
+	    for (Sharer sharer : frame.sharers) {
+		used |= sharer.entry.used;
+		sharer.entry.used = false;
+	    }
+	}
+
+	return used;
+    }
+
+    /**
+     * Test whether the page in a frame differs from its copy in swap or in
+     * its file.
+     *
+     * @param	ppn	the physical page number of a resident page.
+     */
+    static boolean isDirty(int ppn) {
+	syncTLBFrame(ppn);
+
+	return frames[ppn].entry.dirty;
+    }
+
+    /**
+     * Copy the used and dirty bits of any TLB entry for a frame back to the
+     * page table, leaving the entry valid with its used bit clear, so that
+     * the next reference sets it again.
+     */
+    private static void syncTLBFrame(int ppn) {
+	Processor processor = Machine.processor();
+
+	for (int i=0; i<processor.getTLBSize(); i++) {
+	    TranslationEntry tlbEntry = processor.readTLBEntry(i);
+	    if (!mapsFrame(tlbEntry, ppn))
+		continue;
+
+	    mergeTLBEntry(tlbEntry);
+	    if (tlbEntry.used) {
+		tlbEntry.used = false;
+		processor.writeTLBEntry(i, tlbEntry,
+					processor.readTLBEntryASID(i));
+	    }
+	}
+    }
+
+    /**
+     * Copy the used and dirty bits of any TLB entry for a frame back to the
+     * page table, and invalidate the entry. Processes keep their entries
+     * when they are switched out, so the whole TLB is searched.
+     *
+     * @param	ppn	the physical page number.
+     */
+    static void flushTLBFrame(int ppn) {
+	Processor processor = Machine.processor();
+
+	for (int i=0; i<processor.getTLBSize(); i++) {
+	    TranslationEntry tlbEntry = processor.readTLBEntry(i);
+	    if (!mapsFrame(tlbEntry, ppn))
+		continue;
+
+	    mergeTLBEntry(tlbEntry);
+	    processor.writeTLBEntry(i, new TranslationEntry());
+	}
+    }
+
+    /**
+     * Test whether a TLB entry is valid and maps a frame, either on its own
+     * or as part of a superpage.
+     */
+    private static boolean mapsFrame(TranslationEntry tlbEntry, int ppn) {
+	int count = tlbEntry.superpage ?
+	    Machine.processor().getPagesPerSuperpage() : 1;
+
+	return tlbEntry.valid && ppn >= tlbEntry.ppn && ppn < tlbEntry.ppn+count;
+    }
+
+    /**
+     * Copy the used and dirty bits of a TLB entry back to the page table
+     * entry of every frame it maps. The bits of a superpage entry cover all
+     * of its pages, so each of them gets them.
+     */
+    private static void mergeTLBEntry(TranslationEntry tlbEntry) {
+	int count = tlbEntry.superpage ?
+	    Machine.processor().getPagesPerSuperpage() : 1;
+
+	for (int ppn=tlbEntry.ppn; ppn<tlbEntry.ppn+count; ppn++) {
+	    TranslationEntry entry = frames[ppn].entry;
+	    if (entry != null) {
+		entry.used |= tlbEntry.used;
+		entry.dirty |= tlbEntry.dirty;
+	    }
+	}
+    }
+
+    /**
+     * Move the pages of a superpage into an aligned run of frames, so that
+     * one superpage TLB entry can map them. Pages that are already in such a
+     * run stay where they are; otherwise each is copied to a frame of a free
+     * run. The caller must hold <tt>pagingLock</tt>.
+     *
+     * @param	owner		the process the pages belong to.
+     * @param	firstVPN	the first virtual page of the superpage.
+     * @param	entries		the page table entries of the superpage, all
+     *				valid.
+     * @return	the first frame of the run, or <tt>-1</tt> if a page is
+     *		pinned or shared, or no aligned run of frames is free.
+     */
+    static int gatherSuperpage(VMProcess owner, int firstVPN,
+			       TranslationEntry[] entries) {
+	Lib.assertTrue(pagingLock.isHeldByCurrentThread());
+
+	int count = entries.length;
+	boolean inPlace = (entries[0].ppn % count == 0);
+
+	for (int i=0; i<count; i++) {
+	    Frame frame = frames[entries[i].ppn];
+	    if (frame.entry != entries[i] || frame.pinCount > 0 ||
+		frame.sharedKey != null)
+		return -1;
+
+	    if (entries[i].ppn != entries[0].ppn+i)
+		inPlace = false;
+	}
+
+	if (inPlace)
+	    return entries[0].ppn;
+
+	int first = frameAllocator.allocateContiguous(count);
+	if (first == -1)
+	    return -1;
+
+	Lib.debug(dbgVM, "gathering vpn " + firstVPN + " into ppn " + first);
+
+	Processor processor = Machine.processor();
+	byte[] page = new byte[pageSize];
+
+	for (int i=0; i<count; i++) {
+	    int from = entries[i].ppn, to = first+i;
+
+	    flushTLBFrame(from);
+	    processor.readMemory(from*pageSize, page, 0, pageSize);
+	    processor.writeMemory(to*pageSize, page, 0, pageSize);
+	    entries[i].ppn = to;
+
+	    Frame frame = frames[to];
+	    frame.owner = owner;
+	    frame.vpn = firstVPN+i;
+	    frame.entry = entries[i];
+	    frame.pinCount = 0;
+	    policy.pageLoaded(to, owner, firstVPN+i);
+
+	    policy.frameFreed(from);
+	    frames[from].owner = null;
+	    frames[from].entry = null;
+	    frameAllocator.free(from);
+	}
+
+	return first;
+    }
+
+    /**
+     * Copy the used and dirty bits of a TLB entry back to the page table of
+     * the process it belongs to.
+     *
+     * @param	number	the index into the TLB.
+     */
+    static void syncTLBEntry(int number) {
+	Processor processor = Machine.processor();
+	TranslationEntry tlbEntry = processor.readTLBEntry(number);
+	VMProcess owner = asidOwners[processor.readTLBEntryASID(number)];
+
+	if (tlbEntry.valid && owner != null)
+	    owner.syncTLBEntry(tlbEntry);
+    }
+
+    /**
+     * Make a process's ASID current. A process that has
+     * no ASID yet runs with ASID 0, which no TLB entry is tagged with, until
+     * its first TLB miss assigns it one.
+     *
+     * @param	process	the process being switched to.
+     */
+    static void switchASID(VMProcess process) {
+	Machine.processor().setASID(hasASID(process) ? process.asid : 0);
+    }
+
+    /**
+     * Give a process an ASID if it does not have one, and make it current.
+     * When every ASID is in use, the TLB is flushed and all ASIDs are taken
+     * back, so other processes get new ones on their next TLB miss.
+     *
+     * @param	process	the running process.
+     */
+    static void assignASID(VMProcess process) {
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (!hasASID(process)) {
+	    if (freeASIDs.isEmpty())
+		flushTLB();
+
+	    process.asid = freeASIDs.removeFirst();
+	    asidOwners[process.asid] = process;
+	}
+	Machine.processor().setASID(process.asid);
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    /**
+     * Take back the ASID of a process that has released its memory, so it
+     * can be given to another process without flushing the TLB.
+     *
+     * @param	process	the process.
+     */
+    static void releaseASID(VMProcess process) {
+	if (process.asid == 0)
+	    return;
+
+	boolean intStatus = Machine.interrupt().disable();
+
+	if (hasASID(process)) {
+	    Processor processor = Machine.processor();
+
+	    // frees have already removed the entries; make sure of it
+	    for (int i=0; i<processor.getTLBSize(); i++) {
+		if (processor.readTLBEntryASID(i) == process.asid)
+		    processor.writeTLBEntry(i, new TranslationEntry());
+	    }
+
+	    if (processor.getASID() == process.asid)
+		processor.setASID(0);
+
+	    asidOwners[process.asid] = null;
+	    freeASIDs.add(process.asid);
+	}
+	process.asid = 0;
+
+	Machine.interrupt().restore(intStatus);
+    }
+
+    private static boolean hasASID(VMProcess process) {
+	return process.asid != 0 && asidOwners[process.asid] == process;
+    }
+
+    /**
+     * Copy back and invalidate every TLB entry, and take back every ASID.
+     * Interrupts must be disabled.
+     */
+    private static void flushTLB() {
+	Processor processor = Machine.processor();
+
+	for (int i=0; i<processor.getTLBSize(); i++) {
+	    TranslationEntry tlbEntry = processor.readTLBEntry(i);
+	    VMProcess owner = asidOwners[processor.readTLBEntryASID(i)];
+	    if (tlbEntry.valid && owner != null)
+		owner.syncTLBEntry(tlbEntry);
+
+	    processor.writeTLBEntry(i, new TranslationEntry(), 0);
+	}
+	processor.setASID(0);
+
+	Machine.countTLBFlush();
+
+	Lib.debug(dbgVM, "out of ASIDs, flushed the TLB");
+
+	for (int asid=1; asid<Processor.numASIDs; asid++) {
+	    asidOwners[asid] = null;
+	    freeASIDs.add(asid);
+	}
+    }
+
+    /**
+     * Allocate a page-sized slot in the swap file.
+     *
+     * @param	preferred	the slot to allocate if it is free, or
+     *				<tt>-1</tt>.
+     * @return	the slot number.
+     */
+    static int allocateSwapSlot(int preferred) {
+	if (preferred == numSwapSlots)
+	    return numSwapSlots++;
+	if (preferred != -1 && freeSwapSlots.remove((Integer) preferred))
+	    return preferred;
+
+	if (!freeSwapSlots.isEmpty())
+	    return freeSwapSlots.removeFirst();
+
+	return numSwapSlots++;
+    }
+
+    /**
+     * Release a slot allocated by <tt>allocateSwapSlot()</tt>.
+     */
+    static void freeSwapSlot(int slot) {
+	freeSwapSlots.add(slot);
+    }
+
+    /**
+     * Write a frame to a swap slot.
+     */
+    static void writeSwap(int slot, int ppn) {
+	Lib.debug(dbgVM, "swap out ppn " + ppn + " to slot " + slot);
+	Machine.countSwapWrite();
+
+	Processor processor = Machine.processor();
+	int amount;
+
+	if (!processor.isMemoryOffHeap()) {
+	    amount = swapFile.write(slot*pageSize,
+				    processor.getMemory(ppn*pageSize, pageSize),
+				    ppn*pageSize, pageSize);
+	}
+	else {
+	    byte[] page = new byte[pageSize];
+	    processor.readMemory(ppn*pageSize, page, 0, pageSize);
+	    amount = swapFile.write(slot*pageSize, page, 0, pageSize);
+	}
+	Lib.assertTrue(amount == pageSize, "swap write failed");
+    }
+
+    /**
+     * Read consecutive swap slots into frames, with one read of the swap
+     * file.
+     *
+     * @param	slot	the first slot.
+     * @param	ppns	the frames to read the slots into.
+     * @param	count	the number of slots.
+     */
+    static void readSwap(int slot, int[] ppns, int count) {
+	Lib.debug(dbgVM, "swap in " + count + " slots at " + slot);
+	Machine.countSwapReads(count);
+
+	Processor processor = Machine.processor();
+
+	if (count == 1 && !processor.isMemoryOffHeap()) {
+	    int paddr = ppns[0]*pageSize;
+	    int amount = swapFile.read(slot*pageSize,
+				       processor.getMemory(paddr, pageSize),
+				       paddr, pageSize);
+	    processor.memoryWritten(paddr, pageSize);
+	    Lib.assertTrue(amount == pageSize, "swap read failed");
+	    return;
+	}
+
+	byte[] buffer = new byte[count*pageSize];
+	int amount = swapFile.read(slot*pageSize, buffer, 0, buffer.length);
+	Lib.assertTrue(amount == buffer.length, "swap read failed");
+
+	for (int i=0; i<count; i++)
+	    processor.writeMemory(ppns[i]*pageSize, buffer, i*pageSize,
+				  pageSize);
+    }
+
+    /** An entry of the inverted page table. */
+    private static class Frame {
+	/** The process whose page is in this frame, or <tt>null</tt>. */
+	VMProcess owner = null;
+	int vpn;
+	/** The page's entry in its owner's page table. */
+	TranslationEntry entry = null;
+	/** The number of reasons the frame may not be evicted. */
+	int pinCount = 0;
+	/** If the frame is shared, its key in <tt>sharedFrames</tt>. */
+	String sharedKey = null;
+	/** If the frame is shared, the processes other than the owner. */
+	LinkedList<Sharer> sharers = null;
+    }
+
+    /** A process sharing a frame with its owner. */
+    private static class Sharer {
+	Sharer(VMProcess owner, TranslationEntry entry) {
+	    this.owner = owner;
+	    this.entry = entry;
+	}
+
+	VMProcess owner;
+	TranslationEntry entry;
+    }
+
+    /**
+     * Serializes bringing pages in, evicting them and releasing them, for
+     * all processes.
+     */
+    static Lock pagingLock;
+    /** Signalled, under <tt>pagingLock</tt>, when a frame is unpinned. */
+    private static Condition frameUnpinned;
+
+    /** The inverted page table, indexed by physical page number. */
+    private static Frame[] frames;
+    /** Chooses the pages to evict. */
+    private static ReplacementPolicy policy;
+    /**
+     * The frames holding read-only pages of executables, keyed by the
+     * identity of the executable's contents and the page number.
+     */
+    private static HashMap<String, Integer> sharedFrames =
+	new HashMap<String, Integer>();
+    /**
+     * The number of times a process has changed each file that has been
+     * loaded as an executable.
+     */
+    private static HashMap<String, Integer> fileGenerations =
+	new HashMap<String, Integer>();
+
+    /** Whether processes map hot regions with superpage TLB entries. */
+    static boolean useSuperpages;
+
+    /**
+     * The process each ASID is assigned to, or <tt>null</tt>. ASID 0 is
+     * never assigned.
+     */
+    private static VMProcess[] asidOwners;
+    private static LinkedList<Integer> freeASIDs = new LinkedList<Integer>();
+
+    /**
+     * The name of the swap file, or <tt>null</tt> if it was removed while
+     * still open.
+     */
+    private static String swapFileName;
+    private static OpenFile swapFile;
+    private static int numSwapSlots = 0;
+    private static LinkedList<Integer> freeSwapSlots =
+	new LinkedList<Integer>();
+
     // dummy variables to make javac smarter
     private static VMProcess dummy1 = null;
 
+    private static final int pageSize = Processor.pageSize;
     private static final char dbgVM = 'v';
 }
@@ -5,6 +5,9 @@ import nachos.threads.*;
 import nachos.userprog.*;
 import nachos.vm.*;
 
+import java.util.Arrays;
+import java.util.LinkedList;
+
 /**
  * A <tt>UserProcess</tt> that supports demand-paging.
  */
@@ -14,6 +17,78 @@ public class VMProcess extends UserProcess {
      */
     public VMProcess() {
 	super();
+
+	if (VMKernel.useSuperpages) {
+	    useSuperpages = true;
+	    pagesPerSuperpage = Machine.processor().getPagesPerSuperpage();
+	}
+
+	// both are powers of two, so a block holds whole superpages
+	pagesPerBlock = Math.max(minPagesPerBlock, pagesPerSuperpage);
+    }
+
+    /**
+     * Return the block of the page table holding a page, creating it if
+     * <i>create</i> is <tt>true</tt>.
+     *
+     * @return	the block, or <tt>null</tt> if it does not exist.
+     */
+    private PageBlock getBlock(int vpn, boolean create) {
+	if (vpn < 0)
+	    return null;
+
+	int index = vpn / pagesPerBlock;
+	if (index >= pageBlocks.length) {
+	    if (!create)
+		return null;
+	    pageBlocks = Arrays.copyOf(pageBlocks, index+1);
+	}
+
+	if (pageBlocks[index] == null && create)
+	    pageBlocks[index] = new PageBlock(pagesPerBlock,
+					      useSuperpages ?
+					      pagesPerBlock/pagesPerSuperpage :
+					      0);
+
+	return pageBlocks[index];
+    }
+
+    /**
+     * Return the page table entry of a page, or <tt>null</tt> if the page has
+     * never been used.
+     */
+    protected TranslationEntry getPageTableEntry(int vpn) {
+	PageBlock block = getBlock(vpn, false);
+	return (block == null) ? null : block.entries[vpn % pagesPerBlock];
+    }
+
+    /**
+     * Return the swap slot holding a page, or <tt>-1</tt> if it has none.
+     */
+    private int getSwapSlot(int vpn) {
+	PageBlock block = getBlock(vpn, false);
+	return (block == null) ? -1 : block.swapSlots[vpn % pagesPerBlock];
+    }
+
+    private void setSwapSlot(int vpn, int slot) {
+	getBlock(vpn, true).swapSlots[vpn % pagesPerBlock] = slot;
+    }
+
+    private boolean isPrefetched(int vpn) {
+	PageBlock block = getBlock(vpn, false);
+	return block != null && block.prefetched[vpn % pagesPerBlock];
+    }
+
+    private void setPrefetched(int vpn, boolean prefetched) {
+	getBlock(vpn, true).prefetched[vpn % pagesPerBlock] = prefetched;
+    }
+
+    /**
+     * Test whether a page is part of the address space: the program, its
+     * stack and arguments, or a map.
+     */
+    private boolean isInAddressSpace(int vpn) {
+	return vpn >= 0 && (vpn < numPages || findMappingAt(vpn) != null);
     }
 
     /**
@@ -29,7 +104,9 @@ public class VMProcess extends UserProcess {
      * <tt>UThread.restoreState()</tt>.
      */
     public void restoreState() {
-	super.restoreState();
+	// our TLB entries are kept while other processes run, tagged with our
+	// ASID
+	VMKernel.switchASID(this);
     }
 
     /**
@@ -39,15 +116,758 @@ public class VMProcess extends UserProcess {
      * @return	<tt>true</tt> if successful.
      */
     protected boolean loadSections() {
-	return super.loadSections();
+	// read-only pages are shared with processes that loaded the same
+	// contents of the executable
+	sharedPrefix = VMKernel.fileIdentity(coffName, coffLength);
+
+	// every page starts out invalid, and is brought in by loadPage() the
+	// first time it is touched
+	return true;
     }
 
     /**
      * Release any resources allocated by <tt>loadSections()</tt>.
      */
     protected void unloadSections() {
-	super.unloadSections();
-    }    
+	VMKernel.pagingLock.acquire();
+
+	// write back and release mapped files first
+	while (!mappings.isEmpty())
+	    unmap(mappings.getFirst());
+
+	// release frames through the kernel so it forgets their owner; only
+	// the blocks of pages that were used exist
+	for (int b=0; b<pageBlocks.length; b++) {
+	    PageBlock block = pageBlocks[b];
+	    if (block == null)
+		continue;
+
+	    for (int i=0; i<pagesPerBlock; i++) {
+		int vpn = b*pagesPerBlock + i;
+
+		TranslationEntry entry = block.entries[i];
+		if (entry != null && entry.valid) {
+		    notePrefetchMiss(vpn);
+		    demoteSuperpage(vpn);
+		    VMKernel.releaseFrame(entry.ppn, entry);
+		    entry.valid = false;
+		}
+
+		if (block.swapSlots[i] != -1) {
+		    VMKernel.freeSwapSlot(block.swapSlots[i]);
+		    block.swapSlots[i] = -1;
+		}
+	    }
+	}
+
+	VMKernel.pagingLock.release();
+
+	VMKernel.releaseASID(this);
+
+	// sections are no longer loaded from the executable
+	coff.close();
+    }
+
+    /**
+     * Stop sharing the pages of an executable that a system call is about
+     * to change, so that processes loading it afterwards read the new
+     * contents.
+     *
+     * @param	file	the file about to change.
+     */
+    protected void fileChanged(OpenFile file) {
+	VMKernel.fileChanged(file.getName());
+    }
+
+    /**
+     * Handle a syscall exception. Adds <tt>mmap()</tt> and
+     * <tt>munmap()</tt>, and keeps <tt>read()</tt>, <tt>write()</tt> and
+     * their variants from using a file descriptor that is mapped.
+     */
+    public int handleSyscall(int syscall, int a0, int a1, int a2, int a3) {
+	switch (syscall) {
+	case syscallMmap:
+	    return handleMmap(a0, a1);
+	case syscallMunmap:
+	    return handleMunmap(a0);
+	case syscallClose:
+	    Mapping mapping = findMapping(a0);
+	    if (mapping != null) {
+		VMKernel.pagingLock.acquire();
+		unmap(mapping);
+		VMKernel.pagingLock.release();
+	    }
+	    break;
+	case syscallRead:
+	case syscallWrite:
+	case syscallReadv:
+	case syscallWritev:
+	case syscallAioRead:
+	case syscallAioWrite:
+	    if (findMapping(a0) != null)
+		return -1;
+	    break;
+	}
+
+	return super.handleSyscall(syscall, a0, a1, a2, a3);
+    }
+
+    /**
+     * Handle the mmap() system call.
+     * Maps the whole file at the page-aligned address. Nothing is read, and
+     * no page table entries are made, until the pages are touched.
+     * Returns the length of the file.
+     */
+    private int handleMmap(int fileDescriptor, int address) {
+	if (fileDescriptor < 0 || fileDescriptor >= fileTable.length)
+	    return -1;
+	OpenFile file = fileTable[fileDescriptor];
+	if (file == null || findMapping(fileDescriptor) != null)
+	    return -1;
+
+	if (address < 0 || address % pageSize != 0)
+	    return -1;
+
+	int length = file.length();
+	if (length < 0)
+	    return -1;
+
+	// the map must end inside the (positive) address space
+	if (length > Integer.MAX_VALUE - address)
+	    return -1;
+
+	int firstVPN = address / pageSize;
+	int numMappedPages = (length + pageSize-1) / pageSize;
+
+	// don't map over the program or another mapping
+	if (firstVPN < numPages)
+	    return -1;
+	for (Mapping mapping : mappings) {
+	    if (firstVPN < mapping.firstVPN+mapping.numPages &&
+		mapping.firstVPN < firstVPN+numMappedPages)
+		return -1;
+	}
+
+	Lib.debug(dbgVM, "mmap fd " + fileDescriptor + " at vpn " + firstVPN
+		  + " (" + numMappedPages + " pages)");
+
+	mappings.add(new Mapping(fileDescriptor, file, firstVPN,
+				 numMappedPages, length));
+	return length;
+    }
+
+    /**
+     * Handle the munmap() system call.
+     * Writes back the dirty pages of the map at the address and removes it.
+     * The file stays open.
+     * Returns 0 on success.
+     */
+    private int handleMunmap(int address) {
+	for (Mapping mapping : mappings) {
+	    if (mapping.firstVPN*pageSize == address) {
+		VMKernel.pagingLock.acquire();
+		unmap(mapping);
+		VMKernel.pagingLock.release();
+		return 0;
+	    }
+	}
+
+	return -1;
+    }
+
+    /**
+     * Write back the dirty resident pages of a map, release their frames,
+     * and remove the map. The caller must hold
+     * <tt>VMKernel.pagingLock</tt>.
+     */
+    private void unmap(Mapping mapping) {
+	// another thread of this process, such as the I/O worker, may have
+	// pages of the map pinned while it blocks; their frames can only be
+	// released once it is done. The map stays in place until then, so
+	// that its pages are still written back to the file if evicted.
+	while (findPinnedPage(mapping) != -1)
+	    VMKernel.waitForUnpin();
+
+	mappings.remove(mapping);
+
+	int endVPN = mapping.firstVPN + mapping.numPages;
+
+	for (int vpn=mapping.firstVPN; vpn<endVPN; vpn++) {
+	    // skip pages whose block was never made
+	    if (getBlock(vpn, false) == null) {
+		vpn += pagesPerBlock-1 - vpn%pagesPerBlock;
+		continue;
+	    }
+
+	    TranslationEntry entry = getPageTableEntry(vpn);
+	    if (entry == null || !entry.valid)
+		continue;
+
+	    // pick up the dirty bit the TLB may be holding
+	    VMKernel.flushTLBFrame(entry.ppn);
+
+	    if (entry.dirty)
+		writeBack(mapping, vpn-mapping.firstVPN, entry.ppn);
+
+	    notePrefetchMiss(vpn);
+	    demoteSuperpage(vpn);
+	    VMKernel.freeFrame(entry.ppn);
+	    entry.valid = false;
+	    entry.used = false;
+	    entry.dirty = false;
+	}
+    }
+
+    /**
+     * Return a resident page of a map whose frame is pinned, or <tt>-1</tt>
+     * if there is none. The caller must hold <tt>VMKernel.pagingLock</tt>.
+     */
+    private int findPinnedPage(Mapping mapping) {
+	int endVPN = mapping.firstVPN + mapping.numPages;
+
+	for (int vpn=mapping.firstVPN; vpn<endVPN; vpn++) {
+	    if (getBlock(vpn, false) == null) {
+		vpn += pagesPerBlock-1 - vpn%pagesPerBlock;
+		continue;
+	    }
+
+	    TranslationEntry entry = getPageTableEntry(vpn);
+	    if (entry != null && entry.valid && VMKernel.isPinned(entry.ppn))
+		return vpn;
+	}
+
+	return -1;
+    }
+
+    /**
+     * Write a page of a map from its frame back to the mapped file.
+     *
+     * @param	mapping	the map.
+     * @param	page	the page number within the map.
+     * @param	ppn	the frame holding the page.
+     */
+    private void writeBack(Mapping mapping, int page, int ppn) {
+	Processor processor = Machine.processor();
+	int offset = page*pageSize;
+	int length = Math.min(pageSize, mapping.length-offset);
+
+	VMKernel.fileChanged(mapping.file.getName());
+
+	if (!processor.isMemoryOffHeap()) {
+	    mapping.file.write(offset, processor.getMemory(ppn*pageSize, length),
+			       ppn*pageSize, length);
+	    return;
+	}
+
+	byte[] data = new byte[length];
+	processor.readMemory(ppn*pageSize, data, 0, length);
+	mapping.file.write(offset, data, 0, length);
+    }
+
+    /**
+     * Bring in a page if necessary, and pin it for a kernel access.
+     */
+    protected boolean pinPage(int vpn) {
+	VMKernel.pagingLock.acquire();
+
+	TranslationEntry entry = getPageTableEntry(vpn);
+	boolean resident = (entry != null && entry.valid);
+
+	if (resident) {
+	    VMKernel.pinFrame(entry.ppn);
+	    notePrefetchHit(vpn);
+	}
+	else if (isInAddressSpace(vpn)) {
+	    resident = loadPage(vpn, getEntry(vpn));
+	}
+
+	VMKernel.pagingLock.release();
+	return resident;
+    }
+
+    protected void unpinPage(int vpn) {
+	VMKernel.pagingLock.acquire();
+	VMKernel.unpinFrame(getPageTableEntry(vpn).ppn);
+	VMKernel.pagingLock.release();
+    }
+
+    /**
+     * Bring in a page after a page fault. Pages that were swapped out are
+     * read back from swap. Otherwise, pages of COFF sections are loaded from
+     * the executable, stack and argument pages are zero, and pages of mapped
+     * files are read from the file, with the part past the end of the file
+     * zero. A read-only page of a COFF section uses the frame of another
+     * process running the same executable, if one has it.
+     *
+     * <p>
+     * While faults are sequential, the pages that follow are brought in too,
+     * into frames that are free. Swapped out pages in consecutive swap slots
+     * are read together with the faulting page. The caller must hold
+     * <tt>VMKernel.pagingLock</tt>.
+     *
+     * @return	<tt>true</tt> if the page was brought in. Its frame is left
+     *		pinned.
+     */
+    private boolean loadPage(int vpn, TranslationEntry entry) {
+	if (!isInAddressSpace(vpn))
+	    return false;
+
+	Lib.debug(dbgVM, "page fault at vpn " + vpn);
+	Machine.countPageFault();
+
+	int numPrefetch = nextPrefetchWindow(vpn);
+	setPrefetched(vpn, false);
+
+	if (mapSharedPage(vpn, entry))
+	    return true;
+
+	int ppn = VMKernel.allocateFrame(this, vpn, entry, true);
+	if (ppn == -1) {
+	    Lib.debug(dbgVM, "no frame for vpn " + vpn);
+	    return false;
+	}
+
+	// prefetching never evicts
+	numPrefetch = Math.min(numPrefetch,
+			       UserKernel.frameAllocator.numFree());
+
+	if (getSwapSlot(vpn) != -1) {
+	    readSwapRun(vpn, ppn, numPrefetch);
+	}
+	else {
+	    fillPage(vpn, ppn);
+	    for (int i=1; i<=numPrefetch && prefetchPage(vpn+i); i++)
+		;
+	}
+
+	return true;
+    }
+
+    /**
+     * Grow the prefetch window while faults are sequential, and close it
+     * when they are not.
+     *
+     * @param	vpn	the faulting page.
+     * @return	the number of pages to prefetch after <i>vpn</i>.
+     */
+    private int nextPrefetchWindow(int vpn) {
+	if (vpn == lastFaultVPN+1 || vpn == lastFaultVPN+prefetchWindow+1)
+	    prefetchWindow = Math.min(Math.max(2*prefetchWindow, 1),
+				      maxPrefetch);
+	else
+	    prefetchWindow = 0;
+
+	lastFaultVPN = vpn;
+	return prefetchWindow;
+    }
+
+    /**
+     * Map the frame of another process that has a read-only page of the same
+     * executable, if there is one. The frame is left pinned.
+     */
+    private boolean mapSharedPage(int vpn, TranslationEntry entry) {
+	CoffSection section = (vpn < numPages) ? findSection(vpn) : null;
+	if (section == null || !section.isReadOnly())
+	    return false;
+
+	int ppn = VMKernel.mapSharedFrame(sharedKey(vpn), this, entry);
+	if (ppn == -1)
+	    return false;
+
+	Lib.debug(dbgVM, "sharing ppn " + ppn + " for vpn " + vpn);
+	setEntry(entry, ppn, true);
+	return true;
+    }
+
+    /**
+     * Fill a frame with a page that is not in swap, and make it resident.
+     */
+    private void fillPage(int vpn, int ppn) {
+	CoffSection section = (vpn < numPages) ? findSection(vpn) : null;
+	Mapping mapping = (vpn >= numPages) ? findMappingAt(vpn) : null;
+	boolean readOnly = false;
+
+	Processor processor = Machine.processor();
+	int paddr = ppn*pageSize;
+
+	if (section != null) {
+	    section.loadPage(vpn-section.getFirstVPN(), ppn);
+
+	    // read-only pages of an executable are shared by its processes
+	    readOnly = section.isReadOnly();
+	    if (readOnly)
+		VMKernel.shareFrame(ppn, sharedKey(vpn));
+	}
+	else if (mapping != null) {
+	    int offset = (vpn-mapping.firstVPN)*pageSize;
+	    int length = Math.min(pageSize, mapping.length-offset);
+	    int amount;
+
+	    if (!processor.isMemoryOffHeap()) {
+		amount = mapping.file.read(offset,
+					   processor.getMemory(paddr, length),
+					   paddr, length);
+		processor.memoryWritten(paddr, length);
+	    }
+	    else {
+		byte[] page = new byte[length];
+		amount = mapping.file.read(offset, page, 0, length);
+		if (amount > 0)
+		    processor.writeMemory(paddr, page, 0, amount);
+	    }
+
+	    amount = Math.max(amount, 0);
+	    processor.zeroMemory(paddr+amount, pageSize-amount);
+	}
+	else {
+	    processor.zeroMemory(paddr, pageSize);
+	}
+
+	setEntry(getEntry(vpn), ppn, readOnly);
+    }
+
+    /**
+     * Read a swapped out page, and up to <i>maxPrefetch</i> following pages
+     * in consecutive swap slots, with one read of the swap file.
+     */
+    private void readSwapRun(int vpn, int ppn, int maxPrefetch) {
+	int[] ppns = new int[1+maxPrefetch];
+	ppns[0] = ppn;
+
+	int slot = getSwapSlot(vpn);
+	int count = 1;
+	while (count <= maxPrefetch) {
+	    int next = vpn+count;
+	    if (isResident(next) || getSwapSlot(next) != slot+count)
+		break;
+
+	    ppns[count] = VMKernel.allocateFrame(this, next, getEntry(next),
+						 false);
+	    if (ppns[count] == -1)
+		break;
+	    count++;
+	}
+
+	VMKernel.readSwap(slot, ppns, count);
+
+	setEntry(getEntry(vpn), ppn, false);
+	for (int i=1; i<count; i++) {
+	    setEntry(getEntry(vpn+i), ppns[i], false);
+	    setPrefetched(vpn+i, true);
+	    VMKernel.unpinFrame(ppns[i]);
+	}
+    }
+
+    /**
+     * Bring in a page that follows a faulting page from the same COFF section
+     * or mapped file, if a frame is free.
+     *
+     * @return	<tt>true</tt> if the page was brought in.
+     */
+    private boolean prefetchPage(int vpn) {
+	if (isResident(vpn) || getSwapSlot(vpn) != -1)
+	    return false;
+
+	if (vpn < numPages) {
+	    CoffSection section = findSection(vpn);
+	    if (section == null || section != findSection(vpn-1))
+		return false;
+	}
+	else {
+	    Mapping mapping = findMappingAt(vpn);
+	    if (mapping == null || mapping != findMappingAt(vpn-1))
+		return false;
+	}
+
+	TranslationEntry entry = getEntry(vpn);
+	if (!mapSharedPage(vpn, entry)) {
+	    int ppn = VMKernel.allocateFrame(this, vpn, entry, false);
+	    if (ppn == -1)
+		return false;
+
+	    fillPage(vpn, ppn);
+	}
+
+	Lib.debug(dbgVM, "prefetched vpn " + vpn);
+	setPrefetched(vpn, true);
+	VMKernel.unpinFrame(entry.ppn);
+	return true;
+    }
+
+    /**
+     * Count a use of a page that may have been prefetched.
+     */
+    private void notePrefetchHit(int vpn) {
+	if (isPrefetched(vpn)) {
+	    setPrefetched(vpn, false);
+	    Machine.countPrefetchHit();
+	}
+    }
+
+    /**
+     * Count a page that was prefetched but is being discarded unused, and
+     * prefetch less.
+     */
+    private void notePrefetchMiss(int vpn) {
+	if (isPrefetched(vpn)) {
+	    setPrefetched(vpn, false);
+	    prefetchWindow /= 2;
+	    Machine.countPrefetchMiss();
+	}
+    }
+
+    /**
+     * Return the page table entry for a page, creating it if the page has
+     * never been used.
+     */
+    private TranslationEntry getEntry(int vpn) {
+	TranslationEntry[] entries = getBlock(vpn, true).entries;
+	int i = vpn % pagesPerBlock;
+
+	if (entries[i] == null)
+	    entries[i] = new TranslationEntry(vpn, 0, false, false, false, false);
+
+	return entries[i];
+    }
+
+    private boolean isResident(int vpn) {
+	TranslationEntry entry = getPageTableEntry(vpn);
+	return entry != null && entry.valid;
+    }
+
+    private void setEntry(TranslationEntry entry, int ppn, boolean readOnly) {
+	entry.ppn = ppn;
+	entry.valid = true;
+	entry.readOnly = readOnly;
+	entry.used = false;
+	entry.dirty = false;
+    }
+
+    private String sharedKey(int vpn) {
+	return sharedPrefix + ":" + vpn;
+    }
+
+    /**
+     * Evict a page chosen by <tt>VMKernel.allocateFrame()</tt>. A dirty page
+     * is written to its file if it is mapped, and to swap otherwise. A clean
+     * page can be brought in again from where it came from. The caller must
+     * hold <tt>VMKernel.pagingLock</tt>, and the TLB must not hold the page.
+     *
+     * @param	vpn	the page to evict.
+     */
+    void evictPage(int vpn) {
+	TranslationEntry entry = getPageTableEntry(vpn);
+	Lib.assertTrue(entry.valid);
+
+	entry.valid = false;
+	notePrefetchMiss(vpn);
+	demoteSuperpage(vpn);
+
+	if (entry.dirty) {
+	    Mapping mapping = findMappingAt(vpn);
+
+	    if (mapping != null) {
+		writeBack(mapping, vpn-mapping.firstVPN, entry.ppn);
+	    }
+	    else {
+		// keep neighbouring pages in consecutive slots, so that they
+		// can be read back together
+		if (getSwapSlot(vpn) == -1) {
+		    int previous = getSwapSlot(vpn-1);
+		    setSwapSlot(vpn, VMKernel.allocateSwapSlot(
+			(previous != -1) ? previous+1 : -1));
+		}
+		VMKernel.writeSwap(getSwapSlot(vpn), entry.ppn);
+	    }
+	}
+
+	entry.used = false;
+	entry.dirty = false;
+    }
+
+    /**
+     * Return the COFF section containing a page, or <tt>null</tt> for a stack
+     * or argument page.
+     */
+    private CoffSection findSection(int vpn) {
+	for (int s=0; s<coff.getNumSections(); s++) {
+	    CoffSection section = coff.getSection(s);
+	    if (vpn >= section.getFirstVPN() &&
+		vpn < section.getFirstVPN()+section.getLength())
+		return section;
+	}
+
+	return null;
+    }
+
+    /**
+     * Handle a TLB miss by loading the page's translation, bringing the page
+     * in first if it is mapped but not yet resident.
+     */
+    private void handleTLBMiss(int vaddr) {
+	int vpn = Processor.pageFromAddress(vaddr);
+	boolean resident = false;
+
+	if (vaddr >= 0 && isInAddressSpace(vpn)) {
+	    TranslationEntry entry = getEntry(vpn);
+
+	    // only a page fault takes the lock; a resident page can still be
+	    // evicted before it is in the TLB, which is handled below
+	    resident = entry.valid;
+	    if (!resident) {
+		VMKernel.pagingLock.acquire();
+		if (entry.valid) {
+		    resident = true;
+		}
+		else if (loadPage(vpn, entry)) {
+		    VMKernel.unpinFrame(entry.ppn);
+		    resident = true;
+		}
+		VMKernel.pagingLock.release();
+	    }
+
+	    if (resident) {
+		Processor processor = Machine.processor();
+
+		notePrefetchHit(vpn);
+
+		if (useSuperpages)
+		    noteSuperpageMiss(vpn);
+
+		// noteSuperpageMiss() can block, and a context switch could
+		// take our ASID or evict the page, so read the entry again
+		// with interrupts disabled; if the page was evicted it is no
+		// longer valid, and the access just misses again
+		boolean intStatus = Machine.interrupt().disable();
+
+		VMKernel.assignASID(this);
+
+		// replace the TLB entries round robin
+		VMKernel.syncTLBEntry(tlbVictim);
+		processor.writeTLBEntry(tlbVictim, getTLBEntry(vpn));
+		tlbVictim = (tlbVictim+1) % processor.getTLBSize();
+
+		Machine.interrupt().restore(intStatus);
+	    }
+	}
+
+	if (!resident) {
+	    Lib.debug(dbgVM, "TLB miss on bad address 0x" +
+		      Lib.toHexString(vaddr));
+	    super.handleException(Processor.exceptionTLBMiss);
+	}
+    }
+
+    /**
+     * Return the TLB entry to install for a resident page: a superpage entry
+     * if the page's region is a superpage, and the page's own entry
+     * otherwise.
+     */
+    private TranslationEntry getTLBEntry(int vpn) {
+	if (!isSuperpage(vpn))
+	    return getPageTableEntry(vpn);
+
+	int firstVPN = vpn - vpn % pagesPerSuperpage;
+	TranslationEntry first = getPageTableEntry(firstVPN);
+
+	TranslationEntry tlbEntry =
+	    new TranslationEntry(firstVPN, first.ppn, true, first.readOnly,
+				 false, false);
+	tlbEntry.superpage = true;
+	return tlbEntry;
+    }
+
+    /**
+     * Count a TLB miss on a resident page, and try to make its region a
+     * superpage once the region has taken a TLB miss for each of its pages.
+     */
+    private void noteSuperpageMiss(int vpn) {
+	PageBlock block = getBlock(vpn, true);
+	int region = (vpn % pagesPerBlock) / pagesPerSuperpage;
+	if (block.superpages[region] ||
+	    ++block.superpageMisses[region] < pagesPerSuperpage)
+	    return;
+
+	block.superpageMisses[region] = 0;
+
+	int firstVPN = vpn - vpn % pagesPerSuperpage;
+	TranslationEntry[] entries = new TranslationEntry[pagesPerSuperpage];
+
+	VMKernel.pagingLock.acquire();
+
+	// every page must be resident, with the same protection
+	boolean eligible = true;
+	for (int i=0; i<pagesPerSuperpage && eligible; i++) {
+	    entries[i] = getPageTableEntry(firstVPN+i);
+	    eligible = (entries[i] != null && entries[i].valid &&
+			entries[i].readOnly == entries[0].readOnly);
+	}
+
+	if (eligible &&
+	    VMKernel.gatherSuperpage(this, firstVPN, entries) != -1) {
+	    Lib.debug(dbgVM, "superpage at vpn " + firstVPN);
+	    block.superpages[region] = true;
+	}
+
+	VMKernel.pagingLock.release();
+    }
+
+    /**
+     * Stop mapping a page's region with a superpage entry, because the page
+     * is leaving its frame. The caller must hold <tt>VMKernel.pagingLock</tt>.
+     */
+    private void demoteSuperpage(int vpn) {
+	PageBlock block = getBlock(vpn, false);
+	if (useSuperpages && block != null)
+	    block.superpages[(vpn % pagesPerBlock) / pagesPerSuperpage] = false;
+    }
+
+    /**
+     * Test whether a page's region is mapped by superpage TLB entries.
+     */
+    private boolean isSuperpage(int vpn) {
+	PageBlock block = getBlock(vpn, false);
+	return useSuperpages && block != null &&
+	    block.superpages[(vpn % pagesPerBlock) / pagesPerSuperpage];
+    }
+
+    /**
+     * Copy the used and dirty bits of one of this process's TLB entries back
+     * to the page table. The bits of a superpage entry go to each of its
+     * pages.
+     *
+     * @param	tlbEntry	the TLB entry.
+     */
+    void syncTLBEntry(TranslationEntry tlbEntry) {
+	int count = tlbEntry.superpage ? pagesPerSuperpage : 1;
+
+	for (int i=0; i<count; i++) {
+	    TranslationEntry entry = getPageTableEntry(tlbEntry.vpn+i);
+	    if (entry != null && entry.valid && entry.ppn == tlbEntry.ppn+i) {
+		entry.used |= tlbEntry.used;
+		entry.dirty |= tlbEntry.dirty;
+	    }
+	}
+    }
+
+    private Mapping findMapping(int fileDescriptor) {
+	for (Mapping mapping : mappings) {
+	    if (mapping.fileDescriptor == fileDescriptor)
+		return mapping;
+	}
+
+	return null;
+    }
+
+    private Mapping findMappingAt(int vpn) {
+	for (Mapping mapping : mappings) {
+	    if (vpn >= mapping.firstVPN &&
+		vpn < mapping.firstVPN+mapping.numPages)
+		return mapping;
+	}
+
+	return null;
+    }
 
     /**
      * Handle a user exception. Called by
@@ -61,12 +881,92 @@ public class VMProcess extends UserProcess {
 	Processor processor = Machine.processor();
 
 	switch (cause) {
+	case Processor.exceptionTLBMiss:
+	    handleTLBMiss(processor.readRegister(Processor.regBadVAddr));
+	    break;
+
 	default:
 	    super.handleException(cause);
 	    break;
 	}
     }
-	
+
+    /** A file mapped into this process by <tt>mmap()</tt>. */
+    private static class Mapping {
+	Mapping(int fileDescriptor, OpenFile file, int firstVPN, int numPages,
+		int length) {
+	    this.fileDescriptor = fileDescriptor;
+	    this.file = file;
+	    this.firstVPN = firstVPN;
+	    this.numPages = numPages;
+	    this.length = length;
+	}
+
+	int fileDescriptor;
+	OpenFile file;
+	int firstVPN;
+	int numPages;
+	int length;
+    }
+
+    /**
+     * The entries and per-page state of one aligned block of
+     * <tt>pagesPerBlock</tt> pages, the second level of the page table.
+     */
+    private static class PageBlock {
+	PageBlock(int numPages, int numRegions) {
+	    entries = new TranslationEntry[numPages];
+	    swapSlots = new int[numPages];
+	    Arrays.fill(swapSlots, -1);
+	    prefetched = new boolean[numPages];
+	    superpages = new boolean[numRegions];
+	    superpageMisses = new int[numRegions];
+	}
+
+	/** The page table entries, <tt>null</tt> for pages never used. */
+	TranslationEntry[] entries;
+	/** The swap slot holding each page, or <tt>-1</tt> if it has none. */
+	int[] swapSlots;
+	/** Whether each page was prefetched and has not been used since. */
+	boolean[] prefetched;
+	/**
+	 * Whether each aligned region of <tt>pagesPerSuperpage</tt> pages is
+	 * mapped by superpage TLB entries.
+	 */
+	boolean[] superpages;
+	/** The TLB misses on each region since it was last considered. */
+	int[] superpageMisses;
+    }
+
+    /**
+     * The first level of the page table, indexed by <tt>vpn /
+     * pagesPerBlock</tt>. A block is made the first time one of its pages is
+     * used, so a map costs nothing until it is touched. This array only
+     * reaches the highest block used, and holds at most one reference for
+     * each <tt>pagesPerBlock</tt> pages of the 2GB address space.
+     */
+    private PageBlock[] pageBlocks = new PageBlock[1];
+    private int pagesPerBlock;
+
+    private LinkedList<Mapping> mappings = new LinkedList<Mapping>();
+    /** Identifies the executable's contents in the keys of shared frames. */
+    private String sharedPrefix;
+    /** The number of pages prefetched after the last page fault. */
+    private int prefetchWindow = 0;
+    private int lastFaultVPN = -1;
+    /** The next TLB entry to replace. */
+    private int tlbVictim = 0;
+    /** The ASID assigned by the kernel, or 0 if none has been. */
+    int asid = 0;
+    /** Whether hot regions are mapped by superpage TLB entries. */
+    private boolean useSuperpages = false;
+    private int pagesPerSuperpage = 1;
+
+    /** The fewest pages in a block of the page table. */
+    private static final int minPagesPerBlock = 256;
+    /** The most pages to prefetch after a page fault. */
+    private static final int maxPrefetch = 8;
+
     private static final int pageSize = Processor.pageSize;
     private static final char dbgProcess = 'a';
     private static final char dbgVM = 'v';
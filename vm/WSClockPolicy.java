@@ -0,0 +1,70 @@
+package nachos.vm;
+
+import nachos.machine.*;
+
+/**
+ * The WSClock algorithm. A clock hand sweeps the frames, recording the time
+ * each used page was last seen in use. A page that has not been used for
+ * longer than the working set window is outside its process's working set,
+ * and a clean such page is evicted at once.
+ *
+ * <p>
+ * Dirty pages cannot be cleaned in the background here, so if the sweep
+ * finds only dirty pages outside the working set, the first of them is
+ * evicted. If every page is in a working set, the least recently used page
+ * is evicted.
+ */
+public class WSClockPolicy extends ReplacementPolicy {
+    /**
+     * Allocate a new WSClock policy.
+     */
+    public WSClockPolicy() {
+    }
+
+    public void initialize(int numFrames) {
+	lastUse = new long[numFrames];
+    }
+
+    public void pageLoaded(int ppn, VMProcess owner, int vpn) {
+	lastUse[ppn] = Machine.timer().getTime();
+    }
+
+    public int chooseVictim() {
+	long now = Machine.timer().getTime();
+	int oldDirty = -1, oldest = -1;
+
+	for (int i=0; i<lastUse.length; i++) {
+	    int ppn = hand;
+	    hand = (hand+1) % lastUse.length;
+
+	    if (!resident(ppn))
+		continue;
+
+	    boolean used = referenced(ppn);
+	    if (used)
+		lastUse[ppn] = now;
+
+	    if (pinned(ppn))
+		continue;
+
+	    if (!used && now - lastUse[ppn] > workingSetWindow) {
+		if (!dirty(ppn))
+		    return ppn;
+
+		if (oldDirty == -1)
+		    oldDirty = ppn;
+	    }
+
+	    if (oldest == -1 || lastUse[ppn] < lastUse[oldest])
+		oldest = ppn;
+	}
+
+	return (oldDirty != -1) ? oldDirty : oldest;
+    }
+
+    private long[] lastUse;
+    private int hand = 0;
+
+    /** The age in ticks past which a page leaves the working set. */
+    private static final long workingSetWindow = 20000;
+}